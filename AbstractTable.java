@@ -1,7 +1,6 @@
 package creek;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class AbstractTable implements Table {
 
@@ -13,22 +12,30 @@ public abstract class AbstractTable implements Table {
 	private StringBuilder itemUnderConstruction;
 	
 	// concurrency
-	private AtomicBoolean writeLock = new AtomicBoolean(false);
+	private TableLock lock = new TableLock();
 		
 	// Table interface
 	
 	public void obtainWriteLock () {
-		while (writeLock == null || !writeLock.compareAndSet( false, true )) {
-			try {
-				Thread.sleep(1);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		}
+		lock.writeLock();
+	}
+	
+	public boolean tryObtainWriteLock ( long timeoutMillis ) {
+		return lock.tryWriteLock( timeoutMillis );
 	}
 	
 	public void releaseWriteLock () {
-		writeLock.set( false );
+		lock.writeUnlock();
+	}
+	
+	public TableLock lock () {
+		return lock;
+	}
+	
+	// only switch modes while no other thread is using the table
+	public Table lockMode ( int mode ) {
+		lock = new TableLock( mode );
+		return this;
 	}
 		
 	public List<List<String>> data () {
@@ -43,6 +50,10 @@ public abstract class AbstractTable implements Table {
 	}
 	
 	public String item ( int row, int col ) {
+		return lock.read( () -> unlockedItem( row, col ) );
+	}
+	
+	private String unlockedItem ( int row, int col ) {
 		if (row > -1 && data != null && row < data.size() && col > -1 && col < data.get(row).size()) {
 			return data.get(row).get(col);
 		} else {
@@ -51,6 +62,10 @@ public abstract class AbstractTable implements Table {
 	}
 	
 	public String[] row ( int row ) {
+		return lock.read( () -> unlockedRow( row ) );
+	}
+	
+	private String[] unlockedRow ( int row ) {
 		if (row > -1 && data != null && row < data.size()) {
 			List<String> rowList = data.get(row);
 			int rowLength = rowList.size();
@@ -63,6 +78,10 @@ public abstract class AbstractTable implements Table {
 	}
 	
 	public String[] col ( int col ) {
+		return lock.read( () -> unlockedCol( col ) );
+	}
+	
+	private String[] unlockedCol ( int col ) {
 		if (data == null) return new String[]{};
 		int colLength = data.size();
 		String[] colCopy = new String[colLength];
@@ -111,6 +130,11 @@ public abstract class AbstractTable implements Table {
 	
 	public Table append ( List<String> row ) {
 		if (row == null) return this;
+		if (data instanceof AppendOnlyTable.Rows) {
+			// append-only storage publishes rows itself, so appenders don't queue on the write lock
+			data.add( row );
+			return this;
+		}
 		obtainWriteLock();
 		if (data == null) data = new ArrayList<List<String>>();
 		data.add( row );
@@ -124,57 +148,51 @@ public abstract class AbstractTable implements Table {
 		return this;
 	}
 	
+	// slices, sets and reversals are views of this table's rows, copied on their first write. Each is
+	// made under the read lock, from the rows as they are then; appends after that don't show in it,
+	// but removing or replacing rows in place (e.g. data().clear()) must wait until its views are done
+	
 	public Table last ( int lastRows ) {
-		int rowCount = rowCount();
-		return slice( rowCount-lastRows, rowCount );
+		return create().data( lock.read( () -> {
+			int rowCount = data.size();
+			return Views.range( data, Math.max( 0, rowCount-lastRows ), rowCount );
+		} ) );
 	}
 	
 	public Table slice ( int startRowInclusive, int endRowExclusive ) {
-		int rowCount = rowCount();
-		if (startRowInclusive < 0) startRowInclusive = 0;
-		if (endRowExclusive > rowCount) endRowExclusive = rowCount;
-		List<List<String>> aSlice = new ArrayList<>();
-		for (int i=startRowInclusive; i<endRowExclusive; i++) aSlice.add( data.get(i) );
-		return create().data( aSlice );
+		return create().data( lock.read( () -> {
+			int rowCount = data.size();
+			return Views.range( data, Math.max( 0, startRowInclusive ), Math.min( rowCount, endRowExclusive ) );
+		} ) );
 	}
 	
+	// a copy of the cells, so later writes to this table don't show in it; cells outside the table read as null
 	public Table slice ( int startRowInclusive, int endRowExclusive, int startColInclusive, int endColExclusive ) {
-		List<List<String>> aSlice = new ArrayList<>();
-		for (int a=startRowInclusive; a<endRowExclusive; a++) {
-			List<String> row = new ArrayList<>();
-			for (int b=startColInclusive; b<endColExclusive; b++) {
-				row.add( item(a,b) );
+		return create().data( lock.read( () -> {
+			List<List<String>> aSlice = new ArrayList<>();
+			for (int a=startRowInclusive; a<endRowExclusive; a++) {
+				List<String> row = new ArrayList<>();
+				for (int b=startColInclusive; b<endColExclusive; b++) {
+					row.add( unlockedItem(a,b) );
+				}
+				aSlice.add( row );
 			}
-			aSlice.add( row );
-		}
-		return create().data( aSlice );
+			return aSlice;
+		} ) );
 	}
-
+	
 	public Table set () {
-		Set<List<String>> set = new LinkedHashSet<>();
-		for (List<String> row : data) set.add( row );
-		List<List<String>> list = new ArrayList<>();
-		list.addAll( set );
-		return create().data( list );
+		return create().data( lock.read( () -> Views.selection( data, Dedup.rows( data ) ) ) );
 	}
 	
+	// one row per distinct item, where it was first seen, holding the latest row with it;
+	// a negative col counts back from the end of the row
 	public Table set ( int col ) {
-		Map<String,List<String>> map = new LinkedHashMap<>();
-		for (List<String> row : data) {
-			int rowLen = row.size();
-			if (col<0 && rowLen+col>=0) map.put( row.get( rowLen+col ), row ); // negative value: count back from end
-			else if (col<rowLen)        map.put( row.get( col )       , row ); // positive+0 value: count from start
-		}
-		return create().data( new ArrayList<>( map.values() ) );
+		return create().data( lock.read( () -> Views.selection( data, Dedup.rows( data, col, 1 ) ) ) );
 	}
 	
 	public Table reverse () {
-		int len = data.size();
-		List<List<String>> reversed = new ArrayList<>( len );
-		for (int i=len-1; i>=0; i--) {
-			reversed.add( data.get(i) );
-		}
-		return create().data( reversed );
+		return create().data( lock.read( () -> Views.reversed( data ) ) );
 	}
 	
 	public Table replace ( Map<String,String> replacements ) {
@@ -186,24 +204,7 @@ public abstract class AbstractTable implements Table {
 	}
 
 	public Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
-		if (row0<0) row0 = 0;
-		if (col0<0) col0 = 0;
-		obtainWriteLock();
-		if (row1<0 || row1>data.size()) row1 = data.size();
-		for (int row=row0; row<row1; row++) {
-			int colCount = colCount(row);
-			if (col0>=colCount) continue;
-			int endCol = col1;
-			if (col1<0 || col1>colCount) endCol = colCount;
-			List<String> line = data.get(row);
-			for (int col=col0; col<endCol; col++) {
-				String item = line.get(col);
-				if (item!=null && replacements.containsKey(item)) {
-					line.set(col, replacements.get(item));
-				}
-			}
-		}
-		releaseWriteLock();
+		(new Replacer( replacements )).apply( this, row0, col0, row1, col1 );
 		return this;
 	}
 	
@@ -217,10 +218,14 @@ public abstract class AbstractTable implements Table {
 	public abstract Table create ();
 	
 	public int rowCount () {
-		return data.size();
+		return lock.readInt( () -> data.size() );
 	}
 	
 	public int colCount ( int row ) {
+		return lock.readInt( () -> unlockedColCount( row ) );
+	}
+	
+	private int unlockedColCount ( int row ) {
 		if (row > -1 && row < data.size()) {
 			return data.get(row).size();
 		} else {
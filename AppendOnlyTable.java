@@ -0,0 +1,348 @@
+package creek;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class AppendOnlyTable implements Table {
+
+	// rows live in fixed-size chunks reached through two levels of directories
+	private static final int BITS = 10;
+	private static final int SIZE = 1 << BITS;
+	private static final int MASK = SIZE - 1;
+	private static final int CAPACITY = 1 << (BITS*3); // SIZE top-level entries of SIZE*SIZE rows
+
+	private static class Segments {
+
+		private final AtomicReferenceArray<AtomicReferenceArray<AtomicReferenceArray<List<String>>>> directory = new AtomicReferenceArray<>( SIZE );
+		private final AtomicInteger tail = new AtomicInteger();      // next row to be claimed
+		private final AtomicInteger published = new AtomicInteger(); // rows visible to readers
+
+		private AtomicReferenceArray<List<String>> chunk ( int row ) {
+			int top = row >>> (BITS*2);
+			int mid = (row >>> BITS) & MASK;
+			AtomicReferenceArray<AtomicReferenceArray<List<String>>> chunks = directory.get( top );
+			if (chunks == null) {
+				directory.compareAndSet( top, null, new AtomicReferenceArray<AtomicReferenceArray<List<String>>>( SIZE ) );
+				chunks = directory.get( top );
+			}
+			AtomicReferenceArray<List<String>> chunk = chunks.get( mid );
+			if (chunk == null) {
+				chunks.compareAndSet( mid, null, new AtomicReferenceArray<List<String>>( SIZE ) );
+				chunk = chunks.get( mid );
+			}
+			return chunk;
+		}
+
+		void add ( List<String> row ) {
+			int index = tail.getAndIncrement();
+			// checked before chunk() looks past the last top-level entry; < 0 once tail wraps
+			if (index < 0 || index >= CAPACITY) throw new IllegalStateException( "AppendOnlyTable is full" );
+			chunk( index ).set( index & MASK, row );
+			// advance the published count over every filled row; an appender that finds an earlier
+			// row still empty leaves, and the owner of that row carries the count past this one
+			int count;
+			while ((count = published.get()) < tail.get()) {
+				if (chunk( count ).get( count & MASK ) == null) return;
+				published.compareAndSet( count, count+1 );
+			}
+		}
+
+		List<String> get ( int row ) {
+			if (row < 0 || row >= published.get()) return null;
+			return chunk( row ).get( row & MASK );
+		}
+
+		int size () {
+			return published.get();
+		}
+	}
+
+	// List view handed out by data(); add() goes straight to the segments without a write lock
+	static class Rows extends AbstractList<List<String>> {
+
+		private final Segments segments;
+
+		Rows ( Segments segments ) {
+			this.segments = segments;
+		}
+
+		public List<String> get ( int row ) {
+			List<String> line = segments.get( row );
+			if (line == null) throw new IndexOutOfBoundsException( "row "+row );
+			return line;
+		}
+
+		public int size () {
+			return segments.size();
+		}
+
+		public boolean add ( List<String> row ) {
+			if (row == null) return false;
+			segments.add( row );
+			return true;
+		}
+	}
+
+	// data
+	private volatile Segments segments = new Segments();
+
+	// replace() and the other bulk writers still serialize on this lock, append() does not
+	private TableLock lock = new TableLock();
+
+
+	// constructors
+
+	public AppendOnlyTable () {
+	}
+
+	public AppendOnlyTable ( Table table ) {
+		copy( table );
+	}
+
+	public AppendOnlyTable ( String csv ) {
+		append( csv );
+	}
+
+
+	// Write-lock mechanism
+
+	public void obtainWriteLock () {
+		lock.writeLock();
+	}
+
+	public boolean tryObtainWriteLock ( long timeoutMillis ) {
+		return lock.tryWriteLock( timeoutMillis );
+	}
+
+	public void releaseWriteLock () {
+		lock.writeUnlock();
+	}
+
+
+	// Non-restricted and not intrinsically thread-safe
+
+	public Table data ( List<List<String>> data ) {
+		Segments fresh = new Segments();
+		if (data != null) for (List<String> row : data) fresh.add( row );
+		segments = fresh;
+		return this;
+	}
+
+	public List<List<String>> data () {
+		return new Rows( segments );
+	}
+
+	public Table last ( int lastRows ) {
+		int rowCount = rowCount();
+		return slice( rowCount-lastRows, rowCount );
+	}
+
+	public Table slice ( int startRowInclusive, int endRowExclusive ) {
+		Segments snapshot = segments;
+		int rowCount = snapshot.size();
+		if (startRowInclusive < 0) startRowInclusive = 0;
+		if (endRowExclusive > rowCount) endRowExclusive = rowCount;
+		AppendOnlyTable aSlice = new AppendOnlyTable();
+		for (int i=startRowInclusive; i<endRowExclusive; i++) aSlice.segments.add( snapshot.get(i) );
+		return aSlice;
+	}
+
+	public Table slice ( int startRowInclusive, int endRowExclusive, int startColInclusive, int endColExclusive ) {
+		AppendOnlyTable aSlice = new AppendOnlyTable();
+		for (int a=startRowInclusive; a<endRowExclusive; a++) {
+			List<String> row = new ArrayList<>();
+			for (int b=startColInclusive; b<endColExclusive; b++) {
+				row.add( item(a,b) );
+			}
+			aSlice.segments.add( row );
+		}
+		return aSlice;
+	}
+
+	public Table set () {
+		Segments snapshot = segments;
+		int rowCount = snapshot.size();
+		List<List<String>> rows = new ArrayList<>( rowCount );
+		for (int i=0; i<rowCount; i++) rows.add( snapshot.get(i) );
+		IntList ids = Dedup.rows( rows );
+		AppendOnlyTable aSet = new AppendOnlyTable();
+		for (int i=0; i<ids.size(); i++) aSet.segments.add( rows.get( ids.get(i) ) );
+		return aSet;
+	}
+
+	public Table set ( int col ) {
+		Segments snapshot = segments;
+		int rowCount = snapshot.size();
+		List<List<String>> rows = new ArrayList<>( rowCount );
+		for (int i=0; i<rowCount; i++) rows.add( snapshot.get(i) );
+		IntList ids = Dedup.rows( rows, col, 1 );
+		AppendOnlyTable aSet = new AppendOnlyTable();
+		for (int i=0; i<ids.size(); i++) aSet.segments.add( rows.get( ids.get(i) ) );
+		return aSet;
+	}
+
+	public Table reverse () {
+		Segments snapshot = segments;
+		AppendOnlyTable reversed = new AppendOnlyTable();
+		for (int i=snapshot.size()-1; i>=0; i--) reversed.segments.add( snapshot.get(i) );
+		return reversed;
+	}
+
+
+	// Simple, restricted, and mostly thread-safe (readers see every row up to the published count)
+
+	public String item ( int row, int col ) {
+		List<String> line = segments.get( row );
+		if (line != null && col > -1 && col < line.size()) {
+			return line.get(col);
+		} else {
+			return null;
+		}
+	}
+
+	public String[] row ( int row ) {
+		List<String> line = segments.get( row );
+		if (line == null) return new String[]{};
+		return line.toArray( new String[ line.size() ] );
+	}
+
+	public String[] col ( int col ) {
+		Segments snapshot = segments;
+		int rowCount = snapshot.size();
+		String[] colCopy = new String[rowCount];
+		for (int i=0; i<rowCount; i++) {
+			List<String> line = snapshot.get(i);
+			if (col > -1 && line != null && col < line.size()) colCopy[i] = line.get(col);
+		}
+		return colCopy;
+	}
+
+	public int rowCount () {
+		return segments.size();
+	}
+
+	public int colCount ( int row ) {
+		List<String> line = segments.get( row );
+		return ( line != null ? line.size() : -1 );
+	}
+
+
+	// Write-locked and thread-safe
+
+	public Table alias ( Table table ) {
+		if (table == null) return this;
+		if (table instanceof AppendOnlyTable) {
+			segments = ((AppendOnlyTable)table).segments;
+			return this;
+		}
+		return copy( table );
+	}
+
+	public Table copy ( Table table ) {
+		if (table == null) return this;
+		Segments fresh = new Segments();
+		table.obtainWriteLock();
+		for (int row=0; row<table.rowCount(); row++) {
+			fresh.add( new ArrayList<String>( Arrays.asList( table.row(row) ) ) );
+		}
+		table.releaseWriteLock();
+		segments = fresh;
+		return this;
+	}
+
+	public Table append ( Table table ) {
+		if (table == null || table.data() == null) return this;
+		int rowsSafe = table.rowCount();
+		// guards against an endless loop if a table appends itself
+		for (int row=0; row<rowsSafe; row++) append( table.row( row ) );
+		return this;
+	}
+
+	public Table append ( String[] row ) {
+		if (row == null) return this;
+		return append( Arrays.asList( row ) );
+	}
+
+	public Table append ( List<String> row ) {
+		if (row == null) return this;
+		segments.add( row );
+		return this;
+	}
+
+	public Table append ( String raw ) {
+		if (raw == null) return this;
+		for (List<String> row : (new CSV( raw )).data()) append( row );
+		return this;
+	}
+
+	public Table replace ( Map<String,String> replacements ) {
+		return replace( replacements, 0, 0, -1, -1 );
+	}
+
+	public Table replace ( Map<String,String> replacements, int col ) {
+		return replace( replacements, 0, col, -1, col+1 );
+	}
+
+	public Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
+		if (row0<0) row0 = 0;
+		if (col0<0) col0 = 0;
+		obtainWriteLock();
+		Segments snapshot = segments;
+		int rowCount = snapshot.size();
+		if (row1<0 || row1>rowCount) row1 = rowCount;
+		for (int row=row0; row<row1; row++) {
+			List<String> line = snapshot.get(row);
+			int colCount = line.size();
+			if (col0>=colCount) continue;
+			int endCol = col1;
+			if (col1<0 || col1>colCount) endCol = colCount;
+			for (int col=col0; col<endCol; col++) {
+				String item = line.get(col);
+				if (item!=null && replacements.containsKey(item)) {
+					line.set(col, replacements.get(item));
+				}
+			}
+		}
+		releaseWriteLock();
+		return this;
+	}
+
+	public String serial () {
+		return (new CSV( this )).serial();
+	}
+
+	public String toString () {
+		return serial();
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) throws Exception {
+		int threads = ( args.length > 0 ? Integer.parseInt( args[0] ) : 16 );
+		int rows = ( args.length > 1 ? Integer.parseInt( args[1] ) : 100000 );
+
+		final Table appendOnly = new AppendOnlyTable();
+		final Table locked = new CSV();
+		for (final Table table : new Table[]{ locked, appendOnly, locked, appendOnly }) {
+			Thread[] workers = new Thread[threads];
+			long t0 = Stats.time();
+			for (int t=0; t<threads; t++) {
+				final String name = "t"+t;
+				workers[t] = new Thread( () -> {
+					for (int i=0; i<rows; i++) table.append( new String[]{ name, String.valueOf(i) } );
+				} );
+				workers[t].start();
+			}
+			for (Thread worker : workers) worker.join();
+			System.out.println( table.getClass().getSimpleName()+": "+table.rowCount()+" rows, "+Stats.ms( Stats.time()-t0 ) );
+		}
+
+		CSV csv = new CSV( new AppendOnlyTable(), ",", "\\", "\"" );
+		csv.append( "a,b,\"c,d\"\n1,2,3\n" );
+		csv.append( new String[]{ "x", "y" } );
+		System.out.println( "CSV backed by AppendOnlyTable:\n"+csv );
+		System.out.println( "last(2):\n"+csv.last(2) );
+	}
+
+}
@@ -1,5 +1,7 @@
 package creek;
 
+import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 
 public class CSV extends AbstractTable {
@@ -9,28 +11,27 @@ public class CSV extends AbstractTable {
 	private String escape;
 	private String quote;
 	
-	// states
-	private static final int LINE_START_STATE = 0;
-	private static final int DATA_STATE = 1;
-	private static final int COMMA_STATE = 2;
-	private static final int ESCAPE_STATE = 3;
-	private static final int LINE_END_STATE = 4;
-	private static final int QUOTE_DATA_STATE = 5;
-	private static final int QUOTE_END_STATE = 6;
-	private static final int QUOTE_ESCAPE_STATE = 7;
+	// the same as chars for serializing, -1 if not exactly one char
+	private int commaChar;
+	private int escapeChar;
+	private int quoteChar;
 	
-	private int state = LINE_START_STATE;
-
-	/*private static final String[] reverse_state = {
-		"LINE_START_STATE","DATA_STATE","COMMA_STATE","ESCAPE_STATE","LINE_END_STATE","QUOTE_DATA_STATE","QUOTE_END_STATE","QUOTE_ESCAPE_STATE"
-	};*/
+	// chars gathered before a streamed write
+	private static final int CHUNK = 8192;
+	
+	// parsing engine, keeps its state between append() calls until finish()
+	private CSVParser parser;
 
 
 	private void init ( String comma, String escape, String quote ) {
 		this.comma = comma;
 		this.escape = escape;
 		this.quote = quote;
+		commaChar = CSVParser.delimiter( comma );
+		escapeChar = CSVParser.delimiter( escape );
+		quoteChar = CSVParser.delimiter( quote );
 		data( new ArrayList<List<String>>() );
+		parser = new CSVParser( comma, escape, quote, row -> data().add( row ) );
 	}
 
 	
@@ -70,6 +71,11 @@ public class CSV extends AbstractTable {
 		alias( table );
 	}
 	
+	public CSV ( Table table, String comma, String escape, String quote ) {
+		init( comma, escape, quote );
+		alias( table );
+	}
+	
 	
 	public Table create () {
 		return new CSV( comma, escape, quote );
@@ -77,61 +83,176 @@ public class CSV extends AbstractTable {
 	
 	public String serial () {
 		StringBuilder csv = new StringBuilder();
-		for (List<String> row : data()) {
-			for (int i=0; i<row.size(); i++) {
-				if (i>0) csv.append(comma());
-				String item = row.get(i);
-				if (item == null) item = "";
-				if (item.indexOf(quote()) > -1) {
-					csv
-						.append(quote())
-						.append( item.replaceAll(quote(), quote()+quote()) )
-						.append(quote());
-				}
-				else if (item.indexOf(comma()) > -1) {
-					csv
-						.append(quote())
-						.append(item)
-						.append(quote());
-				} else {
-					csv
-						.append(item);
+		try {
+			for (List<String> row : data()) serial( row, csv );
+		} catch (IOException e) {
+			throw new UncheckedIOException( e ); // StringBuilder doesn't throw
+		}
+		return csv.toString();
+	}
+	
+	// streamed under the read lock, e.g. a large table to a file without building one huge String
+	public void serial ( Writer out ) throws IOException {
+		lock().readLock();
+		try {
+			// rows are gathered into chunks, so the writer sees few large writes rather than one per item
+			StringBuilder chunk = new StringBuilder( CHUNK+1024 );
+			char[] chars = new char[0];
+			for (List<String> row : data()) {
+				serial( row, chunk );
+				if (chunk.length() >= CHUNK) chars = write( chunk, chars, out );
+			}
+			write( chunk, chars, out );
+		} finally {
+			lock().readUnlock();
+		}
+	}
+	
+	public void serial ( OutputStream out, Charset charset ) throws IOException {
+		Writer writer = new BufferedWriter( new OutputStreamWriter( out, charset ), 65536 );
+		serial( writer );
+		writer.flush();
+	}
+	
+	// one row, as serial() writes it
+	public void serial ( List<String> row, Appendable csv ) throws IOException {
+		int itemCount = row.size();
+		for (int i=0; i<itemCount; i++) {
+			if (i>0) csv.append(comma());
+			String item = row.get(i);
+			if (item == null) item = "";
+			serial( item, csv );
+		}
+		csv.append(newline());
+	}
+	
+	// an item holding a quote, comma or line break is quoted, its quotes doubled;
+	// one scan decides, and a second writes the pieces only when there are quotes to double
+	private void serial ( String item, Appendable csv ) throws IOException {
+		if (commaChar < 0 || quoteChar < 0) {
+			serialDelimiters( item, csv );
+			return;
+		}
+		int length = item.length();
+		boolean quotes = false;
+		boolean quoted = false;
+		for (int i=0; i<length; i++) {
+			char c = item.charAt(i);
+			if (c == quoteChar) {
+				quotes = true;
+			} else if (c == commaChar || c == '\n' || c == '\r') {
+				quoted = true;
+			}
+		}
+		if (! quotes && ! quoted) {
+			csv.append( item );
+			return;
+		}
+		char q = (char)quoteChar;
+		csv.append( q );
+		if (quotes) {
+			// each piece ends with a quote that the next piece starts with again
+			int from = 0;
+			for (int i=0; i<length; i++) {
+				if (item.charAt(i) == q) {
+					write( item, from, i+1, csv );
+					from = i;
 				}
 			}
-			csv.append(newline());
+			write( item, from, length, csv );
+		} else {
+			csv.append( item );
 		}
-		return csv.toString();
+		csv.append( q );
 	}
 	
-		
-	// internal methods
+	// one row so that the parser reads it back exactly: delimiters and line breaks are escaped rather
+	// than quoted, since the parser keeps doubled quotes; a null cell is written as ""
+	public void serialEscaped ( List<String> row, Appendable csv ) throws IOException {
+		if (commaChar < 0 || escapeChar < 0 || quoteChar < 0) {
+			serial( row, csv );
+			return;
+		}
+		int itemCount = row.size();
+		if (itemCount == 1 && (row.get(0) == null || row.get(0).isEmpty())) {
+			// a lone empty cell would be a blank line, which the parser skips
+			csv.append( (char)quoteChar ).append( (char)quoteChar );
+		} else {
+			for (int i=0; i<itemCount; i++) {
+				if (i>0) csv.append( (char)commaChar );
+				String item = row.get(i);
+				if (item != null) escaped( item, csv );
+			}
+		}
+		csv.append(newline());
+	}
 	
-	private boolean comma (String c) {
-		return c.equals(comma);
+	// a quote only starts a quoted item as the first char
+	private void escaped ( String item, Appendable csv ) throws IOException {
+		int length = item.length();
+		int from = 0;
+		for (int i=0; i<length; i++) {
+			char c = item.charAt(i);
+			if (c == commaChar || c == escapeChar || c == '\n' || c == '\r' || (i == 0 && c == quoteChar)) {
+				write( item, from, i, csv );
+				csv.append( (char)escapeChar );
+				from = i;
+			}
+		}
+		write( item, from, length, csv );
 	}
 	
-	public String comma () {
-		return comma;
+	// serial() of an item when the comma or quote isn't a single char
+	private void serialDelimiters ( String item, Appendable csv ) throws IOException {
+		String quote = quote();
+		if (quote == null || quote.isEmpty()) {
+			csv.append( item );
+		} else if (item.indexOf(quote) > -1) {
+			csv.append(quote);
+			int from = 0;
+			for (int i=item.indexOf(quote); i > -1; i=item.indexOf(quote, i+quote.length())) {
+				write( item, from, i+quote.length(), csv );
+				from = i;
+			}
+			write( item, from, item.length(), csv );
+			csv.append(quote);
+		} else if (item.indexOf(comma()) > -1 || item.indexOf('\n') > -1 || item.indexOf('\r') > -1) {
+			csv.append(quote).append(item).append(quote);
+		} else {
+			csv.append(item);
+		}
 	}
 	
-	private boolean escape (String c) {
-		return c.equals(escape);
+	private static char[] write ( StringBuilder chunk, char[] chars, Writer out ) throws IOException {
+		int length = chunk.length();
+		if (chars.length < length) chars = new char[ length ];
+		chunk.getChars( 0, length, chars, 0 );
+		out.write( chars, 0, length );
+		chunk.setLength( 0 );
+		return chars;
 	}
 	
-	public String escape () {
-		return escape;
+	// part of a String, without the substring Writer.append() would make
+	private static void write ( String s, int from, int to, Appendable csv ) throws IOException {
+		if (csv instanceof Writer) {
+			((Writer)csv).write( s, from, to-from );
+		} else {
+			csv.append( s, from, to );
+		}
 	}
+		
+	// settings
 	
-	private boolean quote (String c) {
-		return c.equals(quote);
+	public String comma () {
+		return comma;
 	}
 	
-	public String quote () {
-		return quote;
+	public String escape () {
+		return escape;
 	}
 	
-	private boolean newline (String c) {
-		return c.equals("\n") || c.equals("\r");
+	public String quote () {
+		return quote;
 	}
 	
 	public String newline () {
@@ -141,135 +262,24 @@ public class CSV extends AbstractTable {
 	
 	// convert CSV to data
 	public Table append ( String csv ) {
+		return append( csv, false );
+	}
+	
+	// more: another chunk of the same input follows, so an unfinished row or quoted item carries over
+	public Table append ( String csv, boolean more ) {
 		obtainWriteLock();
-		
-		for (int i=0; i<csv.length(); i++) {
-		
-			String thisChar = csv.substring(i, i+1);
-
-			// transition and output logic
-			if (state == LINE_START_STATE) {
-				if (comma(thisChar)) {
-					newRow();
-					addBlank();
-					state = COMMA_STATE;
-				} else if (quote(thisChar)) {
-					state = QUOTE_DATA_STATE;
-				} else if (newline(thisChar)) {
-					newRow();
-					addRow();
-					state = LINE_END_STATE;
-				} else if (escape(thisChar)) {
-					newRow();
-					state = ESCAPE_STATE;
-				} else {
-					newRow();
-					buildItem( thisChar );
-					state = DATA_STATE;
-				}
-
-			} else if (state == DATA_STATE) {
-				if (comma(thisChar)) {
-					addItem();
-					state = COMMA_STATE;
-				} else if (newline(thisChar)) {
-					addItem();
-					addRow();
-					state = LINE_END_STATE;
-				} else if (escape(thisChar)) {
-					state = ESCAPE_STATE;
-				} else {
-					buildItem( thisChar );
-					state = DATA_STATE;
-				}
-
-			} else if (state == COMMA_STATE) {
-				if (comma(thisChar)) {
-					addBlank();
-					state = COMMA_STATE;
-				} else if (quote(thisChar)) {
-					state = QUOTE_DATA_STATE;
-				} else if (newline(thisChar)) {
-					addBlank();
-					addRow();
-					state = LINE_END_STATE;
-				} else if (escape(thisChar)) {
-					// Output nothing and go to ESCAPE_STATE
-					state = ESCAPE_STATE;
-				} else {
-					buildItem( thisChar );
-					state = DATA_STATE;
-				}
-
-			} else if (state == LINE_END_STATE) {
-				if (comma(thisChar)) {
-					newRow();
-					addBlank();
-					state = COMMA_STATE;
-				} else if (quote(thisChar)) {
-					newRow();
-					state = QUOTE_DATA_STATE;
-				} else if (newline(thisChar)) {
-					// Output nothing and stay in this state
-				} else if (escape(thisChar)) {
-					// Output nothing and go to ESCAPE_STATE
-					newRow();
-					state = ESCAPE_STATE;
-				} else {
-					newRow();
-					buildItem( thisChar );
-					state = DATA_STATE;
-				}
-
-			} else if (state == QUOTE_DATA_STATE) {
-				if (quote(thisChar)) {
-					state = QUOTE_END_STATE;
-				} else if (escape(thisChar)) {
-					// here we have just the traditional escape character that will cause us to ignore anything
-					buildItem( thisChar );
-					state = QUOTE_ESCAPE_STATE;
-				} else {
-					buildItem( thisChar );
-					state = QUOTE_DATA_STATE;
-				}
-
-			} else if (state == QUOTE_END_STATE) {
-				if (comma(thisChar)) {
-					addItem();
-					state = COMMA_STATE;
-				} else if (newline(thisChar)) {
-					addItem();
-					addRow();
-					state = LINE_END_STATE;
-				} else if (quote(thisChar)) {
-					// here we find out it's not the end of the quoted, just an escaped quote (by using two quotes) inside the quoted
-					buildItem( quote() );
-					buildItem( thisChar );
-					state = QUOTE_DATA_STATE;
-				} else {
-					// this is the edge case where you have raw data trailing the quoted data
-					buildItem( thisChar );
-					state = DATA_STATE;
-				}
-
-			} else if (state == ESCAPE_STATE) {
-				buildItem( thisChar );
-				state = DATA_STATE;
-
-			} else if (state == QUOTE_ESCAPE_STATE) {
-				buildItem( thisChar );
-				state = QUOTE_DATA_STATE;
-
-			}
-			
-			//System.out.println( "thisChar: '"+thisChar+"', state: "+reverse_state[state] );
-		}
-		state = LINE_START_STATE;
-		finalRow();
-		
+		parser.parse( csv );
+		if (!more) parser.finish();
 		releaseWriteLock();
 		return this;
 	}
+	
+	// stream rows from a Reader in fixed-size buffers
+	public Table append ( Reader reader ) throws IOException {
+		CSVReader rows = new CSVReader( reader, comma, escape, quote );
+		while (rows.hasNext()) append( rows.next() );
+		return this;
+	}
 
 
 	// testing
@@ -298,7 +308,45 @@ public class CSV extends AbstractTable {
 		System.out.println( "\ndata:\n"+csv0.data() );
 		System.out.println( "\ncsv0:\n"+csv0 );
 		System.out.println( "\ncsv1:\n"+csv1 );
-			
+		
+		if (args.length > 0) {
+			int count = Integer.parseInt( args[0] );
+			CSV big = new CSV();
+			for (int i=0; i<count; i++) big.append( new String[]{ "row"+i, "say \"hi\", then \"bye\"", "a,b", "plain text "+(i%977), "\"" } );
+			OutputStream discard = new OutputStream() {
+				public void write ( int b ) {}
+				public void write ( byte[] b, int off, int len ) {}
+			};
+			Stats stats = new Stats( count+" quote-heavy rows" );
+			for (int round=0; round<2; round++) {
+				stats.delta();
+				// what serial() did before: indexOf, then replaceAll for each quoted item
+				StringBuilder before = new StringBuilder();
+				for (List<String> row : big.data()) {
+					for (int i=0; i<row.size(); i++) {
+						if (i>0) before.append(big.comma());
+						String item = row.get(i);
+						if (item.indexOf(big.quote()) > -1) {
+							before.append(big.quote()).append( item.replaceAll(big.quote(), big.quote()+big.quote()) ).append(big.quote());
+						} else if (item.indexOf(big.comma()) > -1) {
+							before.append(big.quote()).append(item).append(big.quote());
+						} else {
+							before.append(item);
+						}
+					}
+					before.append(big.newline());
+				}
+				stats.display( "indexOf + replaceAll: "+before.length()+" chars" );
+				String serial = big.serial();
+				stats.display( "serial(): same output: "+serial.equals( before.toString() ) );
+				try {
+					big.serial( discard, java.nio.charset.StandardCharsets.UTF_8 );
+					stats.display( "serial(OutputStream, UTF-8)" );
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 
 }
@@ -2,26 +2,26 @@ package creek;
 
 import java.io.*;
 import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
 import java.nio.charset.*;
 
-public class CSVFile implements TableFile {
+public class CSVFile implements TableFile, Closeable {
 
 	private File file;
 	private CSV csv;
+	private boolean concurrent;
+	private int threads = 1; // parse threads used by read()
 	
-	private static String removeBOM ( String raw ) {
-		// remove Byte Order Mark (BOM)
-		if (
-			raw != null &&
-			raw.length() > 3 &&
-			raw.charAt(0) == 0xEF &&
-			raw.charAt(1) == 0xBB &&
-			raw.charAt(2) == 0xBF
-		) return raw.substring(3);
-		return raw;
-	}
+	// persistent writer, opened on the first write and kept open between appends
+	private FileChannel channel;
+	private Writer writer;
 	
+	// flush policy: after every flushRows rows (0: only on flush(), close() or the timer)
+	private int flushRows = 1;
+	private int unflushed = 0;
+	private Timer flushTimer;
 	
 	// constructors
 
@@ -46,8 +46,14 @@ public class CSVFile implements TableFile {
 	}
 
 	public CSVFile ( File file, boolean append, Table table, String comma ) throws Exception {
+		this( file, append, table, comma, false );
+	}
+
+	// concurrent: back the CSV with an AppendOnlyTable so that appending threads don't queue on the write lock
+	public CSVFile ( File file, boolean append, Table table, String comma, boolean concurrent ) throws Exception {
 		this.file = file;
-		csv = new CSV( comma, "\\", "\"" ); // create blank CSV object
+		this.concurrent = concurrent;
+		csv = blank( comma, "\\", "\"" ); // create blank CSV object
 		if (append) {
 			read();
 			if (table!=null) append( new CSV( table ) ); // append table data to both file and CSV
@@ -57,6 +63,18 @@ public class CSVFile implements TableFile {
 	}
 	
 
+	// parse with this many threads from the next read() on
+	public CSVFile parallel ( int threads ) {
+		this.threads = Math.max( 1, threads );
+		return this;
+	}
+	
+	private CSV blank ( String comma, String escape, String quote ) {
+		if (concurrent) return new CSV( new AppendOnlyTable(), comma, escape, quote );
+		return new CSV( comma, escape, quote );
+	}
+	
+
 	// TableFile interface
 	
 	public TableFile create ( File file ) throws Exception {
@@ -71,29 +89,49 @@ public class CSVFile implements TableFile {
 		return csv;
 	}
 
-	public TableFile clear () throws Exception {
+	public synchronized TableFile clear () throws Exception {
+		closeWriter(); // not close(): the file stays open for writing, flush timer and all
 		if (file.exists()) file.delete();
 		file.createNewFile(); // empty file
-		csv = new CSV( csv.comma(), csv.escape(), csv.quote() );
+		csv = blank( csv.comma(), csv.escape(), csv.quote() );
 		return this;
 	}
 
-	public TableFile read () throws Exception {
+	public synchronized TableFile read () throws Exception {
+		flush();
 		if (file.exists()) {
-			csv = new CSV (
-				removeBOM(
-					new String(
-						Files.readAllBytes( file.toPath() ),
-						Charset.defaultCharset()
-					)
-				), csv.comma()
-			);
+			CSV fresh = blank( csv.comma(), "\\", "\"" );
+			if (threads > 1) {
+				// the parallel parser needs the whole file in memory
+				byte[] bytes = Files.readAllBytes( file.toPath() );
+				int start = ( bytes.length >= 3 && (bytes[0]&0xFF) == 0xEF && (bytes[1]&0xFF) == 0xBB && (bytes[2]&0xFF) == 0xBF ? 3 : 0 );
+				CharBuffer chars = Charset.defaultCharset().decode( ByteBuffer.wrap( bytes, start, bytes.length-start ) );
+				List<List<String>> rows = fresh.data();
+				for (List<String> row : (new ParallelCSVParser( fresh.comma(), fresh.escape(), fresh.quote(), threads )).parse( chars.array(), chars.limit() )) {
+					rows.add( row );
+				}
+				csv = fresh;
+				return this;
+			}
+			try (Reader reader = new InputStreamReader( CSVReader.skipBOM( Files.newInputStream( file.toPath() ) ), Charset.defaultCharset() )) {
+				fresh.append( reader );
+			}
+			csv = fresh;
 		} else {
 			clear();
 		}
 		return this;
 	}
 
+	// rows one at a time, for files larger than memory
+	public CSVReader reader () throws Exception {
+		return reader( file, csv.comma() );
+	}
+	
+	public static CSVReader reader ( File file, String comma ) throws Exception {
+		return new CSVReader( file, comma );
+	}
+
 	public TableFile append ( Table table ) throws Exception {
 		return write( table, true );
 	}
@@ -107,23 +145,79 @@ public class CSVFile implements TableFile {
 		return write( csv, false );
 	}
 	
-	public TableFile write ( Table table, boolean append ) throws Exception {
+	public synchronized TableFile write ( Table table, boolean append ) throws Exception {
 		if (! append) clear(); // write operation
 		if (table == null) return this;
-		CSV newCsv = new CSV( csv.comma(), csv.escape(), csv.quote() );
-		newCsv.append( table );
-		if (!file.exists()) file.createNewFile();
-		Files.write(
-			file.toPath(),
-			newCsv.serial().getBytes(),
-			( append ? StandardOpenOption.APPEND : StandardOpenOption.WRITE )
-		);
-		if (append) csv.append( newCsv ); // append operation
-		else csv = newCsv; // write operation
-		//System.out.println( "CSVFile: "+csv.data() );
+		Writer out = writer();
+		int rowsSafe = table.rowCount(); // a table may append itself
+		for (int r=0; r<rowsSafe; r++) {
+			List<String> row = Arrays.asList( table.row(r) );
+			csv.serial( row, out );
+			csv.append( row );
+		}
+		unflushed += rowsSafe;
+		if (flushRows > 0 && unflushed >= flushRows) flush();
+		return this;
+	}
+	
+	
+	// flushing
+	
+	// flush after every 'rows' rows; 0 leaves flushing to flush(), close() and the timer
+	public synchronized CSVFile flushEvery ( int rows ) {
+		flushRows = Math.max( 0, rows );
+		return this;
+	}
+	
+	// flush at most 'millis' after a write; negative turns the timer off
+	public synchronized CSVFile flushAfter ( long millis ) {
+		if (flushTimer != null) flushTimer.cancel();
+		flushTimer = null;
+		if (millis >= 0) {
+			flushTimer = new Timer( "CSVFile flush "+file.getName(), true );
+			flushTimer.schedule( new TimerTask() {
+				public void run () {
+					try {
+						flush();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}, Math.max( 1, millis ), Math.max( 1, millis ) );
+		}
+		return this;
+	}
+	
+	public synchronized CSVFile flush () throws IOException {
+		if (writer != null && unflushed > 0) writer.flush();
+		unflushed = 0;
 		return this;
 	}
 	
+	public synchronized void close () throws IOException {
+		if (flushTimer != null) flushTimer.cancel();
+		flushTimer = null;
+		closeWriter();
+	}
+	
+	// the writer alone; close() also stops the flush timer
+	void closeWriter () throws IOException {
+		if (writer != null) {
+			writer.close(); // flushes and closes the channel
+			writer = null;
+			channel = null;
+		}
+		unflushed = 0;
+	}
+	
+	private Writer writer () throws IOException {
+		if (writer == null) {
+			channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+			writer = new BufferedWriter( Channels.newWriter( channel, Charset.defaultCharset().newEncoder(), -1 ), 65536 );
+		}
+		return writer;
+	}
+	
 	public String toString () {
 		return csv.toString();
 	}
@@ -170,6 +264,15 @@ public class CSVFile implements TableFile {
 				.append( f2.table() )
 				.append( f0.table() );
 			
+			// one-row appends, flushed per row and in batches
+			for (int every : new int[]{ 1, 1000, 0 }) {
+				CSVFile f3 = (new CSVFile( new File( args[0]+"_4.csv" ), false )).flushEvery( every );
+				Stats stats = new Stats( "flush every "+every+" row(s)" );
+				for (int i=0; i<100000; i++) f3.append( (new CSV()).append( new String[]{ "row", String.valueOf(i) } ) );
+				f3.close();
+				stats.display( "100000 appends, "+(new CSVFile( args[0]+"_4.csv" )).table().rowCount()+" rows read back" );
+			}
+			
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
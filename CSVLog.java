@@ -5,18 +5,70 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.io.*;
 import java.util.*;
+import java.nio.charset.Charset;
 import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 
 public class CSVLog extends CSVFile implements LogFile {
 
 	private String dateTimeFormat;
+	private GroupCommit commit; // null: rows are written by CSVFile as they come
+	
+	// rolling: the live file moves to a numbered segment once it reaches rollBytes or spans rollMillis
+	private long rollBytes = -1;
+	private long rollMillis = -1;
+	private CSVFile manifest; // one row per segment: number, file name, first timestamp, last timestamp, rows
+	
+	// what rollDue() checks, kept per live table instead of read from the file and row 0 on every append
+	private Table sizedTable;
+	private long liveBytes;
+	private Table firstTable;
+	private long firstTime;
+	
+	// time index of the live rows: epoch millis of column 0, extended as rows are appended
+	private DateTimeFormatter formatter;
+	private long[] times = new long[1024];
+	private int timed;
+	private Table timedTable;
+	
+	// table() rows: the segments' rows read once, then the live rows, extended while only rows are appended
+	private List<List<String>> view;
+	private Table viewTable;
+	private int viewRows;
 	
 	private String timestamp () {
 		return timestamp( LocalDateTime.now() );
 	}
 
+	private DateTimeFormatter formatter () {
+		if (formatter == null) formatter = DateTimeFormatter.ofPattern( dateTimeFormat );
+		return formatter;
+	}
+	
 	private String timestamp ( LocalDateTime time ) {
-		return DateTimeFormatter.ofPattern( dateTimeFormat ).format( time );
+		return formatter().format( time );
+	}
+	
+	private LocalDateTime time ( String timestamp ) {
+		return LocalDateTime.parse( timestamp, formatter() );
+	}
+	
+	private static long epoch ( LocalDateTime time ) {
+		long seconds = time.toEpochSecond( ZoneOffset.UTC );
+		try {
+			return Math.addExact( Math.multiplyExact( seconds, 1000L ), time.getNano()/1000000 );
+		} catch (ArithmeticException e) {
+			return ( seconds > 0 ? Long.MAX_VALUE : Long.MIN_VALUE ); // LocalDateTime.MIN/MAX
+		}
+	}
+	
+	private long epoch ( String timestamp ) {
+		try {
+			return epoch( time( timestamp ) );
+		} catch (Exception e) {
+			return Long.MIN_VALUE;
+		}
 	}
 	
 	private CSVLog newLog ( Table subTable ) throws Exception {
@@ -36,33 +88,319 @@ public class CSVLog extends CSVFile implements LogFile {
 	}
 
 	public CSVLog ( File file, Table table, String dateTimeFormat, String comma ) throws Exception {
-		super( file, true, table, comma );
+		this( file, table, dateTimeFormat, comma, false );
+	}
+
+	public CSVLog ( File file, Table table, String dateTimeFormat, String comma, boolean concurrent ) throws Exception {
+		super( file, true, table, comma, concurrent );
 		this.dateTimeFormat = dateTimeFormat;
+		if (manifestFile().exists()) manifest = new CSVFile( manifestFile() );
 	}
 	
 	
 	// Extra CSVFile functionality
 	
 	public LogFile trimmed ( LocalDateTime oldest ) throws Exception {
-		return newLog( (new IndexedTable(table())).last( 0, timestamp(oldest) ) );	
+		return newLog( range( epoch(oldest), Long.MAX_VALUE ) );
+	}
+	
+	// rows with from <= timestamp <= to
+	public Table range ( LocalDateTime from, LocalDateTime to ) throws Exception {
+		return range( epoch(from), epoch(to) );
+	}
+	
+	// the last rows, reading only the newest segments needed
+	public synchronized Table last ( int rows ) throws Exception {
+		List<List<String>> segments = segments();
+		List<List<String>> live = super.table().data();
+		int liveRows = live.size();
+		int fromLive = Math.max( 0, Math.min( rows, liveRows ) );
+		int covered = fromLive;
+		int first = segments.size();
+		while (covered < rows && first > 0) covered += Integer.parseInt( segments.get( --first ).get(4) );
+		List<List<String>> data = new ArrayList<>();
+		for (int i=first; i<segments.size(); i++) data.addAll( segment( segments.get(i) ).data() );
+		int fromSegments = Math.min( data.size(), rows-fromLive );
+		data = new ArrayList<>( data.subList( data.size()-fromSegments, data.size() ) );
+		data.addAll( live.subList( liveRows-fromLive, liveRows ) );
+		return (new CSV()).data( data );
+	}
+	
+	private synchronized Table range ( long from, long to ) throws Exception {
+		List<List<String>> rows = new ArrayList<>();
+		// segments outside the range are never opened
+		for (List<String> segment : segments()) {
+			if (epoch( segment.get(3) ) < from || epoch( segment.get(2) ) > to) continue;
+			for (List<String> row : segment( segment ).data()) {
+				long time = epoch( row.get(0) );
+				if (time >= from && time <= to) rows.add( row );
+			}
+		}
+		// live rows by binary search
+		int count = timeIndex();
+		int start = lowerBound( times, count, from );
+		int end = ( to == Long.MAX_VALUE ? count : lowerBound( times, count, to+1 ) );
+		rows.addAll( super.table().data().subList( start, end ) );
+		return (new CSV()).data( rows );
+	}
+	
+	// bring the time index up to the live row count (it starts over when the live table is replaced)
+	private synchronized int timeIndex () {
+		Table live = super.table();
+		if (live != timedTable) {
+			timedTable = live;
+			timed = 0;
+		}
+		int count = live.rowCount();
+		if (times.length < count) times = Arrays.copyOf( times, Math.max( count, times.length*2 ) );
+		for (; timed<count; timed++) {
+			long time = epoch( live.item( timed, 0 ) );
+			// the log is append-ordered; a row stamped earlier than its predecessor sorts with it
+			times[timed] = ( timed > 0 ? Math.max( time, times[timed-1] ) : time );
+		}
+		return count;
+	}
+	
+	// first of the 'count' sorted times that is >= time
+	private static int lowerBound ( long[] times, int count, long time ) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (times[mid] < time) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+	
+	
+	// Rolling segments
+	
+	// maxBytes, maxMillis: roll when the live file reaches this size or spans this much time (<=0: never)
+	public synchronized CSVLog roll ( long maxBytes, long maxMillis ) throws Exception {
+		rollBytes = maxBytes;
+		rollMillis = maxMillis;
+		if (manifest == null) manifest = new CSVFile( manifestFile() );
+		return this;
+	}
+	
+	private File manifestFile () {
+		return FileActions.addSuffix( file(), ".segments" );
+	}
+	
+	// manifest rows, oldest first
+	public List<List<String>> segments () {
+		if (manifest == null) return new ArrayList<List<String>>();
+		return manifest.table().data();
+	}
+	
+	private File segmentFile ( List<String> segment ) {
+		return new File( file().getAbsoluteFile().getParentFile(), segment.get(1) );
+	}
+	
+	// read one (possibly compressed) segment
+	private CSV segment ( List<String> segment ) throws Exception {
+		CSV csv = new CSV( ((CSV)super.table()).comma(), "\\", "\"" );
+		File file = segmentFile( segment );
+		InputStream in = Files.newInputStream( file.toPath() );
+		if (file.getName().endsWith( ".gz" )) in = new GZIPInputStream( in );
+		try (Reader reader = new InputStreamReader( CSVReader.skipBOM( in ) )) {
+			csv.append( reader );
+		}
+		return csv;
+	}
+	
+	private boolean rollDue () {
+		Table live = super.table();
+		if (manifest == null || live.rowCount() == 0) return false;
+		if (rollBytes > 0 && liveBytes() >= rollBytes) return true;
+		if (rollMillis > 0) {
+			long first = firstTime();
+			// a first cell that isn't a timestamp never makes the segment due
+			if (first != Long.MIN_VALUE && epoch( LocalDateTime.now() )-first > rollMillis) return true;
+		}
+		return false;
+	}
+	
+	// the live file's size, measured once per live table and then counted up as rows are written
+	private long liveBytes () {
+		Table live = super.table();
+		if (live != sizedTable) {
+			sizedTable = live;
+			liveBytes = file().length();
+		}
+		return liveBytes;
+	}
+	
+	// bytes the rows take in the file, as CSVFile and GroupCommit write them
+	private long bytes ( Table table ) {
+		CSV csv = (CSV)super.table();
+		StringBuilder serial = new StringBuilder();
+		try {
+			for (int r=0; r<table.rowCount(); r++) csv.serial( Arrays.asList( table.row(r) ), serial );
+		} catch (IOException e) {
+			throw new UncheckedIOException( e ); // StringBuilder doesn't throw
+		}
+		return serial.toString().getBytes( Charset.defaultCharset() ).length;
+	}
+	
+	// epoch millis of row 0, parsed once per live table (Long.MIN_VALUE if it isn't a timestamp)
+	private long firstTime () {
+		Table live = super.table();
+		if (live != firstTable) {
+			firstTable = live;
+			firstTime = epoch( live.item(0,0) );
+		}
+		return firstTime;
+	}
+	
+	// move the live file to the next segment and start an empty one
+	public synchronized CSVLog roll () throws Exception {
+		if (manifest == null) manifest = new CSVFile( manifestFile() );
+		Table live = super.table();
+		int rows = live.rowCount();
+		if (rows == 0) return this;
+		if (commit != null) commit.release();
+		closeWriter(); // close() would end group commit and the flush timer
+		int number = 1;
+		for (List<String> segment : segments()) number = Math.max( number, Integer.parseInt( segment.get(0) )+1 );
+		File segment = FileActions.addSuffix( file(), "."+number );
+		Files.move( file().toPath(), segment.toPath() );
+		manifest.append( (new CSV()).append( new String[]{ String.valueOf(number), segment.getName(), live.item(0,0), live.item(rows-1,0), String.valueOf(rows) } ) );
+		super.clear();
+		view = null;
+		return this;
+	}
+	
+	// drop segments whose newest row is older than 'oldest'
+	public synchronized CSVLog deleteSegments ( LocalDateTime oldest ) throws Exception {
+		long from = epoch(oldest);
+		CSV kept = new CSV();
+		for (List<String> segment : segments()) {
+			if (epoch( segment.get(3) ) < from) segmentFile( segment ).delete();
+			else kept.append( segment );
+		}
+		if (manifest != null) manifest.write( kept );
+		view = null;
+		return this;
+	}
+	
+	// gzip segments whose newest row is older than 'oldest'
+	public synchronized CSVLog compressSegments ( LocalDateTime oldest ) throws Exception {
+		long from = epoch(oldest);
+		CSV updated = new CSV();
+		for (List<String> segment : segments()) {
+			List<String> entry = new ArrayList<>( segment );
+			if (epoch( segment.get(3) ) < from && !segment.get(1).endsWith( ".gz" )) {
+				File plain = segmentFile( segment );
+				File gz = new File( plain.getPath()+".gz" );
+				try (OutputStream out = new GZIPOutputStream( Files.newOutputStream( gz.toPath() ) )) {
+					Files.copy( plain.toPath(), out );
+				}
+				plain.delete();
+				entry.set( 1, gz.getName() );
+			}
+			updated.append( entry );
+		}
+		if (manifest != null) manifest.write( updated );
+		return this;
+	}
+	
+	
+	// Group commit: appenders queue their samples, one writer thread writes and forces them in batches
+	
+	public synchronized CSVLog groupCommit ( int maxBatch, long maxLatencyMillis ) throws Exception {
+		if (commit != null) commit.close();
+		flush();
+		commit = new GroupCommit( file(), (CSV)super.table(), maxBatch, maxLatencyMillis, row -> super.table().append( row ) );
+		return this;
+	}
+	
+	// batch metrics, or null when group commit is off
+	public GroupCommit groupCommit () {
+		return commit;
+	}
+	
+	// completes once the sample is on disk; without group commit it is written (not forced) right away
+	public CompletableFuture<Void> appendAsync ( List<String> sample ) throws Exception {
+		List<String> timeSample = new ArrayList<>( sample.size()+1 );
+		// stamp and queue together, so that the file stays in time order
+		synchronized (this) {
+			if (rollDue()) roll();
+			timeSample.add( timestamp() );
+			timeSample.addAll( sample );
+			if (commit != null) {
+				if (rollBytes > 0) liveBytes = liveBytes()+bytes( (new CSV()).append(timeSample) );
+				return commit.submit( timeSample );
+			}
+			super.append( (new CSV()).append(timeSample) );
+		}
+		return CompletableFuture.completedFuture( null );
+	}
+	
+	// appended rows are counted towards rollBytes; anything else starts a new live table, measured afresh
+	public synchronized TableFile write ( Table table, boolean append ) throws Exception {
+		if (!append || rollBytes <= 0 || table == null) return super.write( table, append );
+		long size = liveBytes()+bytes( table );
+		super.write( table, true );
+		liveBytes = size;
+		return this;
+	}
+	
+	public synchronized TableFile clear () throws Exception {
+		if (commit != null) commit.release();
+		return super.clear();
+	}
+	
+	public synchronized TableFile read () throws Exception {
+		if (commit != null) commit.sync();
+		return super.read();
+	}
+	
+	public synchronized void close () throws IOException {
+		if (commit != null) commit.close();
+		commit = null;
+		super.close();
 	}
 	
 	
 	// LogFile interface
 
-	public SetTable table () {
-		return new IndexedTable( super.table() );
+	// a new table on each call, over a view of the cached rows that copies them on its first write,
+	// so what a caller does to it stays there; it is indexed as it is queried
+	public synchronized SetTable table () {
+		Table live = super.table();
+		if (view == null || viewTable != live || viewRows > live.rowCount()) {
+			List<List<String>> rows = new ArrayList<>();
+			try {
+				for (List<String> segment : segments()) rows.addAll( segment( segment ).data() );
+			} catch (Exception e) {
+				throw new RuntimeException( e );
+			}
+			view = rows;
+			viewTable = live;
+			viewRows = 0;
+		}
+		// only rows appended since the last call are added
+		List<List<String>> liveRows = live.data();
+		int count = liveRows.size();
+		for (; viewRows<count; viewRows++) view.add( liveRows.get( viewRows ) );
+		IndexedTable table = new IndexedTable();
+		table.data( Views.range( view, 0, view.size() ) );
+		return table;
 	}
 	
 	public LogFile trimmed ( int rows ) throws Exception {
-		//System.out.println( "table.last: "+table().last( rows ) );
-		return newLog( (new CSV()).data( table().last( rows ).data() ) );
+		return newLog( last( rows ) );
 	}
 	
 	public LogFile append ( List<String> sample ) throws Exception {
-		LinkedList<String> timeSample = new LinkedList<>( sample );
-		timeSample.addFirst( timestamp() );
-		super.append( (new CSV()).append(timeSample) );
+		try {
+			appendAsync( sample ).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) throw (Exception)e.getCause();
+			throw e;
+		}
 		return this;
 	}
 	
@@ -96,6 +434,73 @@ public class CSVLog extends CSVFile implements LogFile {
 			
 			System.out.println( "x:\n"+(new CSV()).append( log3.table().col( 0 ) ) );
 			System.out.println( "y:\n"+(new CSV()).append( log3.table().col( 1 ) ) );
+			
+			// rolling segments
+			CSVLog rolling = new CSVLog( new File(args[0]+"_rolling") );
+			rolling.clear();
+			rolling.deleteSegments( LocalDateTime.now().plusDays(1) );
+			rolling.roll( 256, -1 );
+			rolling.groupCommit( 16, 1 );
+			for (int i=0; i<50; i++) rolling.append( new String[]{ "sample", String.valueOf(i) } );
+			System.out.println( "group commit still on after clear and rolls: "+( rolling.groupCommit() != null ) );
+			System.out.println( "segments:\n"+rolling.segments() );
+			System.out.println( "rows in table(): "+rolling.table().rowCount() );
+			SetTable changed = rolling.table();
+			changed.append( new String[]{ "not", "logged" } );
+			changed.replace( Collections.singletonMap( "sample", "changed" ) );
+			System.out.println( "table() after a caller's append and replace: "+rolling.table().rowCount()+" rows, "+rolling.table().row(0)[1] );
+			System.out.println( "trimmed(12):\n"+rolling.trimmed( 12 ) );
+			rolling.compressSegments( LocalDateTime.now().plusDays(1) );
+			System.out.println( "rows after compressing: "+rolling.table().rowCount() );
+			rolling.deleteSegments( LocalDateTime.now().plusDays(1) );
+			System.out.println( "rows after deleting segments: "+rolling.table().rowCount() );
+			
+			// time-window queries on a large log: time index vs. rebuilding an IndexedTable
+			if (args.length > 2) {
+				int count = Integer.parseInt( args[2] );
+				DateTimeFormatter format = DateTimeFormatter.ofPattern( "yyyy-MM-dd_HHmmss_SSS" );
+				LocalDateTime start = LocalDateTime.now().minusDays(1);
+				CSV samples = new CSV();
+				for (int i=0; i<count; i++) samples.append( new String[]{ format.format( start.plusNanos( i*1000000L ) ), "host"+(i%10), String.valueOf(i) } );
+				CSVLog big = new CSVLog( new File(args[0]+"_big"), null, "yyyy-MM-dd_HHmmss_SSS", "," );
+				big.write( samples );
+				LocalDateTime from = start.plusNanos( (count-1000)*1000000L );
+				Stats stats = new Stats( count+" rows" );
+				for (int i=0; i<5; i++) (new IndexedTable( ((CSVFile)big).table() )).last( 0, format.format( from ) );
+				stats.display( "5x new IndexedTable(...).last(0, t)" );
+				big.range( from, LocalDateTime.MAX );
+				stats.display( "first range(t, MAX), builds the time index, "+big.range( from, LocalDateTime.MAX ).rowCount()+" rows" );
+				for (int i=0; i<5; i++) big.range( from, LocalDateTime.MAX );
+				stats.display( "5x range(t, MAX)" );
+				for (int i=0; i<5; i++) big.last( 1000 );
+				stats.display( "5x last(1000)" );
+			}
+			
+			// concurrent appenders, forced one row at a time and in group commits
+			if (args.length > 1) {
+				int threads = Integer.parseInt( args[1] );
+				for (int maxBatch : new int[]{ 1, 1024 }) {
+					final CSVLog group = new CSVLog( new File(args[0]+"_group") );
+					group.clear();
+					group.groupCommit( maxBatch, 2 );
+					Stats stats = new Stats( threads+" appenders, max batch "+maxBatch );
+					Thread[] appenders = new Thread[threads];
+					for (int t=0; t<threads; t++) {
+						final String name = "t"+t;
+						appenders[t] = new Thread( () -> {
+							try {
+								for (int i=0; i<200; i++) group.append( new String[]{ name, String.valueOf(i) } );
+							} catch (Exception e) {
+								e.printStackTrace();
+							}
+						} );
+						appenders[t].start();
+					}
+					for (Thread appender : appenders) appender.join();
+					stats.display( group.groupCommit().toString() );
+					group.close();
+				}
+			}
 		} catch(Exception e) {
 			e.printStackTrace();
 		}	
@@ -0,0 +1,446 @@
+package creek;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+public class CSVParser {
+
+	// states
+	static final int LINE_START_STATE = 0;
+	static final int DATA_STATE = 1;
+	static final int COMMA_STATE = 2;
+	static final int ESCAPE_STATE = 3;
+	static final int LINE_END_STATE = 4;
+	static final int QUOTE_DATA_STATE = 5;
+	static final int QUOTE_END_STATE = 6;
+	static final int QUOTE_ESCAPE_STATE = 7;
+
+	private static final int CHUNK = 8192;
+
+	// settings: a delimiter that isn't exactly one char never matches (-1)
+	private final int comma;
+	private final int escape;
+	private final int quote;
+
+	private int state = LINE_START_STATE;
+
+	// row under construction (null until started)
+	private List<String> row;
+	private int rowWidth = 8;
+
+	// item under construction: pending text followed by the slice buf[sliceStart,sliceEnd)
+	private boolean item;
+	private StringBuilder pending = new StringBuilder();
+	private char[] buf;
+	private int sliceStart;
+	private int sliceEnd;
+
+	private char[] chunk;
+
+	private final Consumer<List<String>> rows;
+
+
+	static int delimiter ( String s ) {
+		return ( s != null && s.length() == 1 ? s.charAt(0) : -1 );
+	}
+
+	public CSVParser ( String comma, String escape, String quote, Consumer<List<String>> rows ) {
+		this.comma = delimiter( comma );
+		this.escape = delimiter( escape );
+		this.quote = delimiter( quote );
+		this.rows = rows;
+	}
+
+	public CSVParser ( Consumer<List<String>> rows ) {
+		this( ",", "\\", "\"", rows );
+	}
+
+
+	public int state () {
+		return state;
+	}
+
+	// resume in a known state, e.g. at a record boundary in the middle of an input
+	public CSVParser state ( int state ) {
+		this.state = state;
+		return this;
+	}
+
+
+	// row and item building
+
+	private void newRow () {
+		row = new ArrayList<>( rowWidth );
+	}
+
+	private void addRow () {
+		if (row == null) newRow();
+		if (row.size() > rowWidth) rowWidth = row.size();
+		rows.accept( row );
+		row = null;
+	}
+
+	private void build ( int i ) {
+		item = true;
+		if (sliceEnd == i && sliceEnd > sliceStart) {
+			sliceEnd++;
+		} else {
+			flushSlice();
+			sliceStart = i;
+			sliceEnd = i+1;
+		}
+	}
+
+	private void build ( char c ) {
+		item = true;
+		flushSlice();
+		pending.append( c );
+	}
+
+	private void flushSlice () {
+		if (sliceEnd > sliceStart) pending.append( buf, sliceStart, sliceEnd-sliceStart );
+		sliceStart = sliceEnd = 0;
+	}
+
+	private void addItem () {
+		String value;
+		if (pending.length() == 0) {
+			value = ( sliceEnd > sliceStart ? new String( buf, sliceStart, sliceEnd-sliceStart ) : "" );
+			sliceStart = sliceEnd = 0;
+		} else {
+			flushSlice();
+			value = pending.toString();
+			pending.setLength( 0 );
+		}
+		addItem( value );
+	}
+
+	private void addItem ( String value ) {
+		if (row == null) newRow();
+		row.add( value );
+		item = false;
+	}
+
+	private boolean newline ( char c ) {
+		return c == '\n' || c == '\r';
+	}
+
+	// a char that doesn't end or escape an unquoted item
+	private boolean plain ( char c ) {
+		return c != comma && c != escape && c != '\n' && c != '\r';
+	}
+
+
+	// parsing
+
+	public CSVParser parse ( String input ) {
+		if (input == null) return this;
+		if (chunk == null) chunk = new char[CHUNK];
+		int length = input.length();
+		for (int start=0; start<length; start+=CHUNK) {
+			int end = Math.min( length, start+CHUNK );
+			input.getChars( start, end, chunk, 0 );
+			parse( chunk, 0, end-start );
+		}
+		return this;
+	}
+
+	// state carries over between calls, so an input can arrive in any number of pieces
+	public CSVParser parse ( char[] input, int offset, int length ) {
+		buf = input;
+		int end = offset+length;
+		for (int i=offset; i<end; i++) {
+			char c = input[i];
+
+			// transition and output logic
+			switch (state) {
+			case LINE_START_STATE:
+				if (c == comma) {
+					newRow();
+					addItem( "" );
+					state = COMMA_STATE;
+				} else if (c == quote) {
+					state = QUOTE_DATA_STATE;
+				} else if (newline(c)) {
+					newRow();
+					addRow();
+					state = LINE_END_STATE;
+				} else if (c == escape) {
+					newRow();
+					state = ESCAPE_STATE;
+				} else {
+					newRow();
+					build( i );
+					state = DATA_STATE;
+				}
+				break;
+
+			case DATA_STATE:
+				if (c == comma) {
+					addItem();
+					state = COMMA_STATE;
+				} else if (newline(c)) {
+					addItem();
+					addRow();
+					state = LINE_END_STATE;
+				} else if (c == escape) {
+					state = ESCAPE_STATE;
+				} else {
+					build( i );
+					// take the rest of the plain run in one step
+					while (i+1 < end && plain( input[i+1] )) i++;
+					sliceEnd = i+1;
+				}
+				break;
+
+			case COMMA_STATE:
+				if (c == comma) {
+					addItem( "" );
+				} else if (c == quote) {
+					state = QUOTE_DATA_STATE;
+				} else if (newline(c)) {
+					addItem( "" );
+					addRow();
+					state = LINE_END_STATE;
+				} else if (c == escape) {
+					// Output nothing and go to ESCAPE_STATE
+					state = ESCAPE_STATE;
+				} else {
+					build( i );
+					state = DATA_STATE;
+				}
+				break;
+
+			case LINE_END_STATE:
+				if (c == comma) {
+					newRow();
+					addItem( "" );
+					state = COMMA_STATE;
+				} else if (c == quote) {
+					newRow();
+					state = QUOTE_DATA_STATE;
+				} else if (newline(c)) {
+					// Output nothing and stay in this state
+				} else if (c == escape) {
+					// Output nothing and go to ESCAPE_STATE
+					newRow();
+					state = ESCAPE_STATE;
+				} else {
+					newRow();
+					build( i );
+					state = DATA_STATE;
+				}
+				break;
+
+			case QUOTE_DATA_STATE:
+				if (c == quote) {
+					state = QUOTE_END_STATE;
+				} else if (c == escape) {
+					// here we have just the traditional escape character that will cause us to ignore anything
+					build( i );
+					state = QUOTE_ESCAPE_STATE;
+				} else {
+					build( i );
+					// take the rest of the quoted run in one step
+					while (i+1 < end && input[i+1] != quote && input[i+1] != escape) i++;
+					sliceEnd = i+1;
+				}
+				break;
+
+			case QUOTE_END_STATE:
+				if (c == comma) {
+					addItem();
+					state = COMMA_STATE;
+				} else if (newline(c)) {
+					addItem();
+					addRow();
+					state = LINE_END_STATE;
+				} else if (c == quote) {
+					// here we find out it's not the end of the quoted, just an escaped quote (by using two quotes) inside the quoted
+					item = true;
+					if (i > offset && sliceEnd == i-1 && sliceEnd > sliceStart) {
+						sliceEnd = i+1; // both quotes are still in the buffer, right after the slice
+					} else if (i > offset && sliceEnd == sliceStart) {
+						sliceStart = i-1;
+						sliceEnd = i+1;
+					} else {
+						build( c );
+						build( i );
+					}
+					state = QUOTE_DATA_STATE;
+				} else {
+					// this is the edge case where you have raw data trailing the quoted data
+					build( i );
+					state = DATA_STATE;
+				}
+				break;
+
+			case ESCAPE_STATE:
+				build( i );
+				state = DATA_STATE;
+				break;
+
+			case QUOTE_ESCAPE_STATE:
+				build( i );
+				state = QUOTE_DATA_STATE;
+				break;
+			}
+		}
+		// the caller may reuse its buffer, so keep what has been sliced so far
+		flushSlice();
+		buf = null;
+		return this;
+	}
+
+	// end of input: emit whatever is under construction and start over
+	public CSVParser finish () {
+		state = LINE_START_STATE;
+		if (item) addItem();
+		if (row != null) addRow();
+		return this;
+	}
+
+
+	// state transition alone (no output), for scanning ahead of a parse
+	static int next ( int state, int c, int comma, int escape, int quote ) {
+		boolean newline = ( c == '\n' || c == '\r' );
+		switch (state) {
+		case LINE_START_STATE:
+		case LINE_END_STATE:
+		case COMMA_STATE:
+			if (c == comma) return COMMA_STATE;
+			if (c == quote) return QUOTE_DATA_STATE;
+			if (newline) return LINE_END_STATE;
+			if (c == escape) return ESCAPE_STATE;
+			return DATA_STATE;
+		case DATA_STATE:
+			if (c == comma) return COMMA_STATE;
+			if (newline) return LINE_END_STATE;
+			if (c == escape) return ESCAPE_STATE;
+			return DATA_STATE;
+		case QUOTE_DATA_STATE:
+			if (c == quote) return QUOTE_END_STATE;
+			if (c == escape) return QUOTE_ESCAPE_STATE;
+			return QUOTE_DATA_STATE;
+		case QUOTE_END_STATE:
+			if (c == comma) return COMMA_STATE;
+			if (newline) return LINE_END_STATE;
+			if (c == quote) return QUOTE_DATA_STATE;
+			return DATA_STATE;
+		case ESCAPE_STATE:
+			return DATA_STATE;
+		default:
+			return QUOTE_DATA_STATE; // QUOTE_ESCAPE_STATE
+		}
+	}
+
+}
+
+class BenchCSVParser {
+
+	// the previous CSV.append(): one substring() and String.equals() per input char
+	static List<List<String>> legacy ( String csv, String comma, String escape, String quote ) {
+		List<List<String>> data = new ArrayList<>();
+		List<String> row = null;
+		StringBuilder item = null;
+		int state = CSVParser.LINE_START_STATE;
+		for (int i=0; i<csv.length(); i++) {
+			String c = csv.substring(i, i+1);
+			boolean isComma = c.equals(comma), isQuote = c.equals(quote), isEscape = c.equals(escape);
+			boolean isNewline = c.equals("\n") || c.equals("\r");
+			if (state == CSVParser.LINE_START_STATE || state == CSVParser.LINE_END_STATE) {
+				boolean lineEnd = ( state == CSVParser.LINE_END_STATE );
+				if (isComma) { row = new ArrayList<>(); row.add( "" ); state = CSVParser.COMMA_STATE; }
+				else if (isQuote) { if (lineEnd) row = new ArrayList<>(); state = CSVParser.QUOTE_DATA_STATE; }
+				else if (isNewline) { if (!lineEnd) { data.add( new ArrayList<>() ); row = null; } state = CSVParser.LINE_END_STATE; }
+				else if (isEscape) { row = new ArrayList<>(); state = CSVParser.ESCAPE_STATE; }
+				else { row = new ArrayList<>(); item = new StringBuilder().append( c ); state = CSVParser.DATA_STATE; }
+			} else if (state == CSVParser.DATA_STATE || state == CSVParser.QUOTE_END_STATE) {
+				if (isComma || isNewline) {
+					if (row == null) row = new ArrayList<>();
+					row.add( item == null ? "" : item.toString() );
+					item = null;
+					if (isNewline) { data.add( row ); row = null; state = CSVParser.LINE_END_STATE; }
+					else state = CSVParser.COMMA_STATE;
+				} else if (state == CSVParser.DATA_STATE && isEscape) {
+					state = CSVParser.ESCAPE_STATE;
+				} else if (state == CSVParser.QUOTE_END_STATE && isQuote) {
+					if (item == null) item = new StringBuilder();
+					item.append( quote ).append( c );
+					state = CSVParser.QUOTE_DATA_STATE;
+				} else {
+					if (item == null) item = new StringBuilder();
+					item.append( c );
+					state = CSVParser.DATA_STATE;
+				}
+			} else if (state == CSVParser.COMMA_STATE) {
+				if (isComma) row.add( "" );
+				else if (isQuote) state = CSVParser.QUOTE_DATA_STATE;
+				else if (isNewline) { row.add( "" ); data.add( row ); row = null; state = CSVParser.LINE_END_STATE; }
+				else if (isEscape) state = CSVParser.ESCAPE_STATE;
+				else { item = new StringBuilder().append( c ); state = CSVParser.DATA_STATE; }
+			} else if (state == CSVParser.QUOTE_DATA_STATE) {
+				if (isQuote) { state = CSVParser.QUOTE_END_STATE; continue; }
+				if (item == null) item = new StringBuilder();
+				item.append( c );
+				if (isEscape) state = CSVParser.QUOTE_ESCAPE_STATE;
+			} else {
+				if (item == null) item = new StringBuilder();
+				item.append( c );
+				state = ( state == CSVParser.ESCAPE_STATE ? CSVParser.DATA_STATE : CSVParser.QUOTE_DATA_STATE );
+			}
+		}
+		if (item != null) {
+			if (row == null) row = new ArrayList<>();
+			row.add( item.toString() );
+		}
+		if (row != null) data.add( row );
+		return data;
+	}
+
+	static String sample ( int rows ) {
+		StringBuilder csv = new StringBuilder();
+		Random random = new Random( 1 );
+		for (int i=0; i<rows; i++) {
+			csv
+				.append( "2024-01-01_000000_" ).append( i%1000 ).append( ',' )
+				.append( "host-" ).append( random.nextInt(100) ).append( ',' )
+				.append( random.nextDouble() ).append( ',' )
+				.append( "\"quoted, with comma\"" ).append( ',' )
+				.append( "\"say \"\"hi\"\"\"" ).append( ',' )
+				.append( "escaped\\,comma" ).append( ",,\r\n" );
+		}
+		return csv.toString();
+	}
+
+	public static void main ( String[] args ) {
+		int rows = ( args.length > 0 ? Integer.parseInt( args[0] ) : 100000 );
+		String csv = sample( rows );
+		double mb = csv.length() / (1024.0*1024.0);
+		System.out.println( "input: "+String.format( "%.1f", mb )+" M chars, identical output: "+
+			legacy( csv, ",", "\\", "\"" ).equals( (new CSV( csv )).data() ) );
+		for (int round=0; round<5; round++) {
+			System.gc();
+			long t0 = Stats.time();
+			legacy( csv, ",", "\\", "\"" );
+			long t1 = Stats.time();
+			System.gc();
+			long t2 = Stats.time();
+			final List<List<String>> data = new ArrayList<>( rows );
+			(new CSVParser( row -> data.add( row ) )).parse( csv ).finish();
+			long t3 = Stats.time();
+			final int[] count = new int[1];
+			(new CSVParser( row -> count[0]++ )).parse( csv ).finish();
+			long t4 = Stats.time();
+			double before = mb / ((t1-t0)/1e9);
+			double after = mb / ((t3-t2)/1e9);
+			double dropped = mb / ((t4-t3)/1e9);
+			System.out.println(
+				"round "+round+": substring FSM "+String.format( "%.1f", before )+" MB/s, "+
+				"CSVParser "+String.format( "%.1f", after )+" MB/s ("+String.format( "%.1f", after/before )+"x), "+
+				"rows not kept "+String.format( "%.1f", dropped )+" MB/s ("+String.format( "%.1f", dropped/before )+"x)"
+			);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+public class CSVReader implements Iterator<List<String>>, Closeable {
+
+	private static final int BUFFER = 65536;
+
+	private Reader reader;
+	private char[] buffer;
+	private CSVParser parser;
+
+	// rows parsed from the current buffer and not yet handed out
+	private ArrayDeque<List<String>> ready = new ArrayDeque<>();
+
+	private boolean started = false;
+	private boolean finished = false;
+
+
+	// constructors
+
+	public CSVReader ( Reader reader ) {
+		this( reader, ",", "\\", "\"", BUFFER );
+	}
+
+	public CSVReader ( Reader reader, String comma ) {
+		this( reader, comma, "\\", "\"", BUFFER );
+	}
+
+	public CSVReader ( Reader reader, String comma, String escape, String quote ) {
+		this( reader, comma, escape, quote, BUFFER );
+	}
+
+	public CSVReader ( Reader reader, String comma, String escape, String quote, int bufferSize ) {
+		this.reader = reader;
+		buffer = new char[bufferSize];
+		parser = new CSVParser( comma, escape, quote, row -> ready.add( row ) );
+	}
+
+	public CSVReader ( InputStream in, Charset charset, String comma ) throws IOException {
+		this( new InputStreamReader( skipBOM( in ), charset ), comma );
+	}
+
+	public CSVReader ( ReadableByteChannel channel, Charset charset, String comma ) {
+		this( Channels.newReader( channel, charset.newDecoder(), -1 ), comma );
+	}
+
+	public CSVReader ( File file, String comma ) throws Exception {
+		this( new FileInputStream( file ), Charset.defaultCharset(), comma );
+	}
+
+
+	// drop a UTF-8 Byte Order Mark before any charset gets to decode it
+	public static InputStream skipBOM ( InputStream in ) throws IOException {
+		InputStream buffered = new BufferedInputStream( in );
+		buffered.mark( 3 );
+		byte[] head = new byte[3];
+		int length = buffered.readNBytes( head, 0, 3 );
+		if (!(length == 3 && (head[0]&0xFF) == 0xEF && (head[1]&0xFF) == 0xBB && (head[2]&0xFF) == 0xBF)) buffered.reset();
+		return buffered;
+	}
+
+	// parse one more buffer (the parser carries its state across the boundary)
+	private void fill () throws IOException {
+		int length = reader.read( buffer );
+		if (length < 0) {
+			parser.finish();
+			finished = true;
+			return;
+		}
+		int offset = 0;
+		if (!started && length > 0) {
+			started = true;
+			// skip a Byte Order Mark, decoded or left as its three raw bytes
+			if (buffer[0] == '\uFEFF') offset = 1;
+			else if (length > 3 && buffer[0] == 0xEF && buffer[1] == 0xBB && buffer[2] == 0xBF) offset = 3;
+		}
+		parser.parse( buffer, offset, length-offset );
+	}
+
+
+	// Iterator interface
+
+	public boolean hasNext () {
+		try {
+			while (ready.isEmpty() && !finished) fill();
+		} catch (IOException e) {
+			throw new UncheckedIOException( e );
+		}
+		return !ready.isEmpty();
+	}
+
+	public List<String> next () {
+		if (!hasNext()) throw new NoSuchElementException();
+		return ready.poll();
+	}
+
+	public void close () throws IOException {
+		reader.close();
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) throws Exception {
+		String csv = CSV.test().serial();
+		// tiny buffers so that quoted items are split across reads
+		for (int size : new int[]{ 1, 2, 3, 7, 64 }) {
+			CSVReader rows = new CSVReader( new StringReader( "\uFEFF"+csv ), ",", "\\", "\"", size );
+			List<List<String>> data = new ArrayList<>();
+			rows.forEachRemaining( data::add );
+			System.out.println( "buffer "+size+": "+( data.equals( (new CSV( csv )).data() ) ? "same rows" : "DIFFERENT: "+data ) );
+		}
+		if (args.length > 0) {
+			Stats stats = new Stats( args[0] );
+			long count = 0;
+			try (CSVReader rows = new CSVReader( new File( args[0] ), "," )) {
+				while (rows.hasNext()) {
+					rows.next();
+					count++;
+				}
+			}
+			stats.display( count+" rows streamed" );
+		}
+	}
+
+}
@@ -0,0 +1,511 @@
+package creek;
+
+import java.util.*;
+
+public class ColumnarTable implements Table {
+
+	// cell codes below zero are not pool entries
+	private static final int NULL = -1;
+
+	// shared dictionary of distinct cell values
+	public static class StringPool {
+
+		private Map<String,Integer> codes = new HashMap<>();
+		private volatile String[] values = new String[64];
+		private int size = 0;
+
+		public synchronized int code ( String value ) {
+			if (value == null) return NULL;
+			Integer code = codes.get( value );
+			if (code != null) return code;
+			if (size == values.length) values = Arrays.copyOf( values, size*2 );
+			values[size] = value;
+			codes.put( value, size );
+			return size++;
+		}
+
+		public synchronized int find ( String value ) {
+			if (value == null) return NULL;
+			Integer code = codes.get( value );
+			return ( code != null ? code : NULL );
+		}
+
+		public String value ( int code ) {
+			return ( code < 0 ? null : values[code] );
+		}
+
+		public synchronized int size () {
+			return size;
+		}
+	}
+
+	// column storage, shared between aliased tables
+	private static class Columns {
+
+		private StringPool pool;
+		private int[][] cols = new int[0][];
+		private int[] rowLen = new int[16];
+		private int rows = 0;
+
+		Columns ( StringPool pool ) {
+			this.pool = pool;
+		}
+
+		void ensure ( int rowCapacity, int colCapacity ) {
+			if (rowCapacity > rowLen.length) {
+				int capacity = Math.max( rowCapacity, rowLen.length*2 );
+				rowLen = Arrays.copyOf( rowLen, capacity );
+				for (int c=0; c<cols.length; c++) cols[c] = Arrays.copyOf( cols[c], capacity );
+			}
+			if (colCapacity > cols.length) {
+				int oldCols = cols.length;
+				cols = Arrays.copyOf( cols, colCapacity );
+				for (int c=oldCols; c<colCapacity; c++) cols[c] = new int[rowLen.length];
+			}
+		}
+
+		int code ( int row, int col ) {
+			if (row < 0 || row >= rows || col < 0 || col >= rowLen[row]) return NULL;
+			return cols[col][row];
+		}
+
+		void add ( int[] codes, int len ) {
+			ensure( rows+1, len );
+			for (int c=0; c<len; c++) cols[c][rows] = codes[c];
+			rowLen[rows] = len;
+			rows++;
+		}
+
+		void addFrom ( Columns source, int row, int startCol, int endCol ) {
+			int len = endCol - startCol;
+			if (len < 0) len = 0;
+			ensure( rows+1, len );
+			for (int c=0; c<len; c++) cols[c][rows] = source.code( row, startCol+c );
+			rowLen[rows] = len;
+			rows++;
+		}
+
+		void addFrom ( Columns source, int row ) {
+			addFrom( source, row, 0, source.rowLen[row] );
+		}
+	}
+
+	// data
+	private Columns columns;
+
+	// concurrency
+	private TableLock lock = new TableLock();
+
+
+	// constructors
+
+	public ColumnarTable () {
+		this( new StringPool() );
+	}
+
+	public ColumnarTable ( StringPool pool ) {
+		columns = new Columns( pool );
+	}
+
+	public ColumnarTable ( Table table ) {
+		this();
+		copy( table );
+	}
+
+	public ColumnarTable ( String csv ) {
+		this();
+		append( csv );
+	}
+
+	public StringPool pool () {
+		return columns.pool;
+	}
+
+	private ColumnarTable create () {
+		return new ColumnarTable( columns.pool );
+	}
+
+
+	// Write-lock mechanism
+
+	public void obtainWriteLock () {
+		lock.writeLock();
+	}
+
+	public boolean tryObtainWriteLock ( long timeoutMillis ) {
+		return lock.tryWriteLock( timeoutMillis );
+	}
+
+	public void releaseWriteLock () {
+		lock.writeUnlock();
+	}
+
+	public TableLock lock () {
+		return lock;
+	}
+
+	// only switch modes while no other thread is using the table
+	public Table lockMode ( int mode ) {
+		lock = new TableLock( mode );
+		return this;
+	}
+
+
+	// List views over the columns (nothing is copied)
+
+	public List<List<String>> data () {
+		final Columns snapshot = columns;
+		return new AbstractList<List<String>>() {
+			public List<String> get ( int row ) {
+				if (row < 0 || row >= snapshot.rows) throw new IndexOutOfBoundsException( "row "+row );
+				return rowView( snapshot, row );
+			}
+			public int size () {
+				return snapshot.rows;
+			}
+			public boolean add ( List<String> row ) {
+				append( row );
+				return true;
+			}
+		};
+	}
+
+	private static List<String> rowView ( final Columns snapshot, final int row ) {
+		return new AbstractList<String>() {
+			public String get ( int col ) {
+				if (col < 0 || col >= snapshot.rowLen[row]) throw new IndexOutOfBoundsException( "col "+col );
+				return snapshot.pool.value( snapshot.cols[col][row] );
+			}
+			public int size () {
+				return snapshot.rowLen[row];
+			}
+		};
+	}
+
+	public List<String> column ( final int col ) {
+		final Columns snapshot = columns;
+		return new AbstractList<String>() {
+			public String get ( int row ) {
+				if (row < 0 || row >= snapshot.rows) throw new IndexOutOfBoundsException( "row "+row );
+				return snapshot.pool.value( snapshot.code( row, col ) );
+			}
+			public int size () {
+				return snapshot.rows;
+			}
+		};
+	}
+
+	public Table data ( List<List<String>> data ) {
+		Columns fresh = new Columns( columns.pool );
+		if (data != null) for (List<String> row : data) encode( fresh, row );
+		obtainWriteLock();
+		columns = fresh;
+		releaseWriteLock();
+		return this;
+	}
+
+	private static void encode ( Columns target, List<String> row ) {
+		int len = row.size();
+		int[] codes = new int[len];
+		int c = 0;
+		for (String item : row) codes[c++] = target.pool.code( item );
+		target.add( codes, len );
+	}
+
+
+	// Simple, restricted, and mostly thread-safe
+
+	public String item ( int row, int col ) {
+		return lock.read( () -> columns.pool.value( columns.code( row, col ) ) );
+	}
+
+	public String[] row ( int row ) {
+		return lock.read( () -> unlockedRow( row ) );
+	}
+
+	private String[] unlockedRow ( int row ) {
+		Columns snapshot = columns;
+		if (row < 0 || row >= snapshot.rows) return new String[]{};
+		int len = snapshot.rowLen[row];
+		String[] rowCopy = new String[len];
+		for (int c=0; c<len; c++) rowCopy[c] = snapshot.pool.value( snapshot.cols[c][row] );
+		return rowCopy;
+	}
+
+	public String[] col ( int col ) {
+		return lock.read( () -> unlockedCol( col ) );
+	}
+
+	private String[] unlockedCol ( int col ) {
+		Columns snapshot = columns;
+		String[] colCopy = new String[snapshot.rows];
+		for (int r=0; r<snapshot.rows; r++) colCopy[r] = snapshot.pool.value( snapshot.code( r, col ) );
+		return colCopy;
+	}
+
+	public int rowCount () {
+		return lock.readInt( () -> columns.rows );
+	}
+
+	public int colCount ( int row ) {
+		return lock.readInt( () -> unlockedColCount( row ) );
+	}
+
+	private int unlockedColCount ( int row ) {
+		Columns snapshot = columns;
+		if (row > -1 && row < snapshot.rows) {
+			return snapshot.rowLen[row];
+		} else {
+			return -1;
+		}
+	}
+
+
+	// Non-restricted and not intrinsically thread-safe
+
+	public Table last ( int lastRows ) {
+		int rowCount = rowCount();
+		return slice( rowCount-lastRows, rowCount );
+	}
+
+	public Table slice ( int startRowInclusive, int endRowExclusive ) {
+		Columns source = columns;
+		if (startRowInclusive < 0) startRowInclusive = 0;
+		if (endRowExclusive > source.rows) endRowExclusive = source.rows;
+		ColumnarTable aSlice = create();
+		Columns target = aSlice.columns;
+		int rows = Math.max( 0, endRowExclusive-startRowInclusive );
+		int width = 0;
+		for (int r=startRowInclusive; r<endRowExclusive; r++) width = Math.max( width, source.rowLen[r] );
+		target.ensure( rows, width );
+		for (int c=0; c<width; c++) {
+			System.arraycopy( source.cols[c], startRowInclusive, target.cols[c], 0, rows );
+		}
+		if (rows > 0) System.arraycopy( source.rowLen, startRowInclusive, target.rowLen, 0, rows );
+		target.rows = rows;
+		return aSlice;
+	}
+
+	public Table slice ( int startRowInclusive, int endRowExclusive, int startColInclusive, int endColExclusive ) {
+		Columns source = columns;
+		ColumnarTable aSlice = create();
+		for (int r=startRowInclusive; r<endRowExclusive; r++) {
+			aSlice.columns.addFrom( source, r, startColInclusive, endColExclusive );
+		}
+		return aSlice;
+	}
+
+	public Table set () {
+		Columns source = columns;
+		ColumnarTable aSet = create();
+		// open-addressing table of row ids, compared by their codes
+		int[] slots = new int[ Integer.highestOneBit( Math.max( 2, source.rows*2 ) )*2 ];
+		Arrays.fill( slots, -1 );
+		int mask = slots.length-1;
+		for (int r=0; r<source.rows; r++) {
+			int slot = rowHash( source, r ) & mask;
+			boolean duplicate = false;
+			while (slots[slot] != -1) {
+				if (rowEquals( source, slots[slot], r )) {
+					duplicate = true;
+					break;
+				}
+				slot = (slot+1) & mask;
+			}
+			if (!duplicate) {
+				slots[slot] = r;
+				aSet.columns.addFrom( source, r );
+			}
+		}
+		return aSet;
+	}
+
+	private static int rowHash ( Columns source, int row ) {
+		int hash = source.rowLen[row];
+		for (int c=0; c<source.rowLen[row]; c++) hash = hash*31 + source.cols[c][row];
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean rowEquals ( Columns source, int a, int b ) {
+		if (source.rowLen[a] != source.rowLen[b]) return false;
+		for (int c=0; c<source.rowLen[a]; c++) {
+			if (source.cols[c][a] != source.cols[c][b]) return false;
+		}
+		return true;
+	}
+
+	public Table set ( int col ) {
+		Columns source = columns;
+		int poolSize = source.pool.size();
+		// indexed by code+1 so that null cells get their own slot
+		int[] lastRow = new int[poolSize+1];
+		Arrays.fill( lastRow, -1 );
+		int[] order = new int[poolSize+1];
+		int distinct = 0;
+		for (int r=0; r<source.rows; r++) {
+			int rowLen = source.rowLen[r];
+			int c;
+			if (col<0 && rowLen+col>=0) c = rowLen+col; // negative value: count back from end
+			else if (col>=0 && col<rowLen) c = col;     // positive+0 value: count from start
+			else continue;
+			int key = source.cols[c][r]+1;
+			if (lastRow[key] == -1) order[distinct++] = key;
+			lastRow[key] = r;
+		}
+		ColumnarTable aSet = create();
+		for (int i=0; i<distinct; i++) aSet.columns.addFrom( source, lastRow[order[i]] );
+		return aSet;
+	}
+
+	public Table reverse () {
+		Columns source = columns;
+		ColumnarTable reversed = create();
+		for (int r=source.rows-1; r>=0; r--) reversed.columns.addFrom( source, r );
+		return reversed;
+	}
+
+
+	// Write-locked and thread-safe
+
+	public Table alias ( Table table ) {
+		if (table == null) return this;
+		if (table instanceof ColumnarTable) {
+			obtainWriteLock();
+			columns = ((ColumnarTable)table).columns;
+			releaseWriteLock();
+			return this;
+		}
+		return copy( table );
+	}
+
+	public Table copy ( Table table ) {
+		if (table == null) return this;
+		Columns fresh = new Columns( columns.pool );
+		table.obtainWriteLock();
+		if (table instanceof ColumnarTable && ((ColumnarTable)table).pool() == columns.pool) {
+			Columns source = ((ColumnarTable)table).columns;
+			for (int r=0; r<source.rows; r++) fresh.addFrom( source, r );
+		} else {
+			for (int r=0; r<table.rowCount(); r++) encode( fresh, Arrays.asList( table.row(r) ) );
+		}
+		table.releaseWriteLock();
+		obtainWriteLock();
+		columns = fresh;
+		releaseWriteLock();
+		return this;
+	}
+
+	public Table append ( Table table ) {
+		if (table == null) return this;
+		if (table instanceof ColumnarTable && ((ColumnarTable)table).pool() == columns.pool) {
+			Columns source = ((ColumnarTable)table).columns;
+			int rowsSafe = source.rows;
+			obtainWriteLock();
+			for (int r=0; r<rowsSafe; r++) columns.addFrom( source, r );
+			releaseWriteLock();
+			return this;
+		}
+		if (table.data() == null) return this;
+		int rowsSafe = table.rowCount();
+		for (int r=0; r<rowsSafe; r++) append( table.row( r ) );
+		return this;
+	}
+
+	public Table append ( String[] row ) {
+		if (row == null) return this;
+		return append( Arrays.asList( row ) );
+	}
+
+	public Table append ( List<String> row ) {
+		if (row == null) return this;
+		obtainWriteLock();
+		encode( columns, row );
+		releaseWriteLock();
+		return this;
+	}
+
+	public Table append ( String raw ) {
+		if (raw == null) return this;
+		for (List<String> row : (new CSV( raw )).data()) append( row );
+		return this;
+	}
+
+	public Table replace ( Map<String,String> replacements ) {
+		return replace( replacements, 0, 0, -1, -1 );
+	}
+
+	public Table replace ( Map<String,String> replacements, int col ) {
+		return replace( replacements, 0, col, -1, col+1 );
+	}
+
+	public Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
+		if (row0<0) row0 = 0;
+		if (col0<0) col0 = 0;
+		obtainWriteLock();
+		Columns target = columns;
+		// translate the replacement map into codes once, then swap codes in place
+		int poolSize = target.pool.size();
+		int[] translation = new int[poolSize];
+		for (int code=0; code<poolSize; code++) translation[code] = code;
+		for (Map.Entry<String,String> entry : replacements.entrySet()) {
+			int from = target.pool.find( entry.getKey() );
+			if (from != NULL && from < poolSize) translation[from] = target.pool.code( entry.getValue() );
+		}
+		if (row1<0 || row1>target.rows) row1 = target.rows;
+		for (int row=row0; row<row1; row++) {
+			int colCount = target.rowLen[row];
+			if (col0>=colCount) continue;
+			int endCol = col1;
+			if (col1<0 || col1>colCount) endCol = colCount;
+			for (int col=col0; col<endCol; col++) {
+				int code = target.cols[col][row];
+				if (code != NULL) target.cols[col][row] = translation[code];
+			}
+		}
+		releaseWriteLock();
+		return this;
+	}
+
+	public String serial () {
+		return (new CSV( this )).serial();
+	}
+
+	public String toString () {
+		return serial();
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		ColumnarTable table = new ColumnarTable( CSV.test() );
+		System.out.println( "table:\n"+table );
+		System.out.println( "pool size: "+table.pool().size() );
+		System.out.println( "item(2,1): "+table.item(2,1) );
+		System.out.println( "row(4): "+Arrays.asList( table.row(4) ) );
+		System.out.println( "column(2): "+table.column(2) );
+		System.out.println( "slice(1,3):\n"+table.slice(1,3) );
+		System.out.println( "slice(0,3,1,3):\n"+table.slice(0,3,1,3) );
+		table.append( table.row(0) );
+		table.append( new String[]{ "1", "x" } );
+		System.out.println( "set():\n"+table.set() );
+		System.out.println( "set(0):\n"+table.set(0) );
+		System.out.println( "reverse():\n"+table.reverse() );
+		Map<String,String> map = new HashMap<>();
+		map.put( "1", "one" );
+		map.put( "x", "X" );
+		System.out.println( "replace():\n"+table.replace( map ) );
+
+		if (args.length > 0) {
+			int rows = Integer.parseInt( args[0] );
+			Stats stats = new Stats( "ColumnarTable vs CSV, "+rows+" rows" );
+			ColumnarTable columnar = new ColumnarTable();
+			for (int i=0; i<rows; i++) columnar.append( new String[]{ "host"+(i%100), String.valueOf(i%1000), "ok" } );
+			stats.display( "ColumnarTable" );
+			CSV csv = new CSV();
+			for (int i=0; i<rows; i++) csv.append( new String[]{ "host"+(i%100), String.valueOf(i%1000), "ok" } );
+			stats.display( "CSV" );
+		}
+	}
+
+}
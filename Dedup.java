@@ -0,0 +1,467 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// order-preserving deduplication by 64-bit fingerprints in a primitive open-addressing set;
+// rows with equal fingerprints are compared, so a collision never drops a row
+public class Dedup {
+
+	private Dedup () {} // prohibit blank instantiation
+
+	// chunks under this many rows aren't worth a thread
+	private static final int MIN_CHUNK_ROWS = 10000;
+
+	// all columns
+	public static final int ROW = Integer.MIN_VALUE;
+
+
+	// fingerprints
+
+	private static long mix ( long h ) {
+		h ^= (h >>> 33);
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= (h >>> 33);
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	// String caches its hashCode(), so a cell is only walked the first time; length widens it
+	private static long fingerprint ( String item ) {
+		if (item == null) return 0x9E3779B97F4A7C15L;
+		return mix( ((long)item.length() << 32) ^ (item.hashCode() & 0xFFFFFFFFL) );
+	}
+
+	private static long fingerprint ( List<String> row ) {
+		if (row == null) return 0;
+		long h = row.size();
+		for (int c=0; c<row.size(); c++) h = (h ^ fingerprint( row.get(c) ))*0x9E3779B97F4A7C15L;
+		return mix( h );
+	}
+
+	// the column counted from the end when negative, as Table.set(col) does; -1 if the row is too short
+	private static int column ( List<String> row, int col ) {
+		if (row == null) return -1;
+		int rowLen = row.size();
+		if (col<0 && rowLen+col>=0) return rowLen+col;
+		if (col>=0 && col<rowLen) return col;
+		return -1;
+	}
+
+	private static boolean same ( List<List<String>> rows, int a, int b, int col ) {
+		if (col == ROW) return Objects.equals( rows.get(a), rows.get(b) );
+		return Objects.equals( rows.get(a).get( column( rows.get(a), col ) ), rows.get(b).get( column( rows.get(b), col ) ) );
+	}
+
+	private static void fingerprints ( List<List<String>> rows, int col, long[] fingerprints, boolean[] present, int from, int to ) {
+		for (int r=from; r<to; r++) {
+			List<String> row = rows.get(r);
+			if (col == ROW) {
+				fingerprints[r] = fingerprint( row );
+				present[r] = true;
+			} else {
+				int c = column( row, col );
+				present[r] = ( c >= 0 );
+				if (present[r]) fingerprints[r] = fingerprint( row.get(c) );
+			}
+		}
+	}
+
+
+	// the set
+
+	// for the rows in this partition: kept[r] for the first row with each key, last[r] the latest row with that key
+	private static void mark ( List<List<String>> rows, int col, long[] fingerprints, boolean[] present, int partition, int partitions, boolean[] kept, int[] last ) {
+		int capacity = 16;
+		long[] slotPrints = new long[capacity];
+		int[] slotRows = new int[capacity];
+		Arrays.fill( slotRows, -1 );
+		int size = 0;
+		for (int r=0; r<fingerprints.length; r++) {
+			if (! present[r]) continue;
+			long print = fingerprints[r];
+			if (partitions > 1 && Math.floorMod( (int)(print >>> 40), partitions ) != partition) continue;
+			int mask = capacity-1;
+			int slot = (int)print & mask;
+			boolean duplicate = false;
+			while (slotRows[slot] != -1) {
+				if (slotPrints[slot] == print && same( rows, slotRows[slot], r, col )) {
+					duplicate = true;
+					if (last != null) last[ slotRows[slot] ] = r;
+					break;
+				}
+				slot = (slot+1) & mask;
+			}
+			if (duplicate) continue;
+			kept[r] = true;
+			if (last != null) last[r] = r;
+			slotPrints[slot] = print;
+			slotRows[slot] = r;
+			// keep the table at most half full
+			if (++size*2 > capacity) {
+				long[] oldPrints = slotPrints;
+				int[] oldRows = slotRows;
+				capacity *= 2;
+				slotPrints = new long[capacity];
+				slotRows = new int[capacity];
+				Arrays.fill( slotRows, -1 );
+				mask = capacity-1;
+				for (int s=0; s<oldRows.length; s++) {
+					if (oldRows[s] == -1) continue;
+					int to = (int)oldPrints[s] & mask;
+					while (slotRows[to] != -1) to = (to+1) & mask;
+					slotPrints[to] = oldPrints[s];
+					slotRows[to] = oldRows[s];
+				}
+			}
+		}
+	}
+
+
+	// in memory
+
+	// ids of the distinct rows, first-seen order
+	public static IntList rows ( List<List<String>> rows ) {
+		return rows( rows, ROW, 1 );
+	}
+
+	public static IntList rows ( List<List<String>> rows, int threads ) {
+		return rows( rows, ROW, threads );
+	}
+
+	// col: ROW for whole rows, otherwise one id per distinct cell of the column, where the key was first seen
+	// but the latest row with it (as Table.set(col) has it); rows without the column are dropped
+	public static IntList rows ( List<List<String>> rows, int col, int threads ) {
+		int count = rows.size();
+		long[] prints = new long[count];
+		boolean[] present = new boolean[count];
+		boolean[] kept = new boolean[count];
+		int[] last = ( col == ROW ? null : new int[count] );
+		int chunks = ( threads > 1 && count >= MIN_CHUNK_ROWS*2 ? Math.min( threads*4, count/MIN_CHUNK_ROWS ) : 1 );
+		if (chunks == 1) {
+			fingerprints( rows, col, prints, present, 0, count );
+			mark( rows, col, prints, present, 0, 1, kept, last );
+		} else {
+			// fingerprints by chunk, then one set per fingerprint partition; each row is in one partition,
+			// and every partition is scanned in row order, so first-seen order holds
+			ForkJoinPool pool = new ForkJoinPool( threads );
+			try {
+				List<Callable<Void>> tasks = new ArrayList<>();
+				for (int k=0; k<chunks; k++) {
+					final int from = (int)( (long)count*k/chunks );
+					final int to = (int)( (long)count*(k+1)/chunks );
+					tasks.add( () -> {
+						fingerprints( rows, col, prints, present, from, to );
+						return null;
+					} );
+				}
+				for (Future<Void> task : pool.invokeAll( tasks )) task.get();
+				tasks.clear();
+				for (int p=0; p<threads; p++) {
+					final int partition = p;
+					tasks.add( () -> {
+						mark( rows, col, prints, present, partition, threads, kept, last );
+						return null;
+					} );
+				}
+				for (Future<Void> task : pool.invokeAll( tasks )) task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			} catch (ExecutionException e) {
+				throw new RuntimeException( e.getCause() );
+			} finally {
+				pool.shutdown();
+			}
+		}
+		IntList ids = new IntList();
+		for (int r=0; r<count; r++) if (kept[r]) ids.add( last != null ? last[r] : r );
+		return ids;
+	}
+
+	public static List<List<String>> select ( List<List<String>> rows, IntList ids ) {
+		List<List<String>> selected = new ArrayList<>( ids.size() );
+		for (int i=0; i<ids.size(); i++) selected.add( rows.get( ids.get(i) ) );
+		return selected;
+	}
+
+
+	// external, for files larger than memory
+
+	// distinct rows of in, first-seen order, to out; at most about maxRows rows are held at once,
+	// however often rows repeat. Returns the rows written
+	public static long file ( File in, File out, String comma, int maxRows, File spillDirectory ) throws Exception {
+		maxRows = Math.max( 1, maxRows );
+		try (CSVReader reader = CSVFile.reader( in, comma )) {
+			List<List<String>> rows = new ArrayList<>();
+			long bytes = 0;
+			while (rows.size() < maxRows && reader.hasNext()) {
+				List<String> row = reader.next();
+				rows.add( row );
+				for (String item : row) bytes += ( item != null ? item.length()+1 : 1 );
+			}
+			if (! reader.hasNext()) {
+				// it fits
+				List<List<String>> distinct = select( rows, rows( rows ) );
+				write( distinct, out, comma );
+				return distinct.size();
+			}
+			// partition by fingerprint into runs of rows tagged with their row numbers, sized from the rows seen so far
+			long estimate = in.length()/Math.max( 1, bytes/rows.size() );
+			int partitions = (int)Math.max( 2, Math.min( 1024, 2*estimate/maxRows+1 ) );
+			return spill( rows, reader, partitions, out, comma, maxRows, spillDirectory );
+		}
+	}
+
+	// the partition of a fingerprint, from a different slice of its bits at each depth
+	private static int partition ( long print, int depth, int partitions ) {
+		return Math.floorMod( (int)( Long.rotateLeft( print, 24*depth ) >>> 40 ), partitions );
+	}
+
+	private static long spill ( List<List<String>> buffered, CSVReader rest, int partitions, File out, String comma, int maxRows, File spillDirectory ) throws Exception {
+		Run[] runs = new Run[partitions];
+		List<Run> kept = new ArrayList<>();
+		try {
+			for (int p=0; p<partitions; p++) runs[p] = new Run( "creek-dedup-", spillDirectory );
+			long number = 0;
+			Iterator<List<String>> rows = buffered.iterator();
+			while (rows.hasNext() || rest.hasNext()) {
+				List<String> row = ( rows.hasNext() ? rows.next() : rest.next() );
+				runs[ partition( fingerprint( row ), 0, partitions ) ].write( number++, row );
+			}
+			buffered.clear();
+
+			// each run on its own: its duplicates are all in it, and its rows are in row number order
+			for (Run run : runs) distinct( run, 0, maxRows, kept, spillDirectory );
+
+			return merge( kept.toArray( new Run[0] ), out, comma );
+		} finally {
+			for (Run run : runs) if (run != null) run.delete();
+			for (Run run : kept) run.delete();
+		}
+	}
+
+	// the first of each row in run, with its row number, to a new kept run. Duplicates are dropped as the run
+	// is read, so only its distinct rows are held; past maxRows of them, the run is partitioned again on
+	// the next slice of the fingerprints (three slices cover all 64 bits, so the last depth holds them all)
+	private static void distinct ( Run run, int depth, int maxRows, List<Run> kept, File spillDirectory ) throws IOException {
+		Distinct distinct = new Distinct();
+		long[] numbers = new long[16];
+		long read = 0;
+		boolean full = false;
+		try (Run.Cursor cursor = run.cursor()) {
+			while (cursor.next()) {
+				read++;
+				if (! distinct.add( cursor.row() )) continue;
+				int size = distinct.rows.size();
+				if (size > maxRows && depth < 2) {
+					full = true;
+					break;
+				}
+				if (size > numbers.length) numbers = Arrays.copyOf( numbers, numbers.length*2 );
+				numbers[size-1] = cursor.tag();
+			}
+		}
+		if (full) {
+			long estimate = (long)distinct.rows.size()*run.rows()/read;
+			distinct = null;
+			int partitions = (int)Math.max( 2, Math.min( 1024, 2*estimate/maxRows+1 ) );
+			Run[] parts = new Run[partitions];
+			try {
+				for (int p=0; p<partitions; p++) parts[p] = new Run( "creek-dedup-", spillDirectory );
+				try (Run.Cursor cursor = run.cursor()) {
+					while (cursor.next()) parts[ partition( fingerprint( cursor.row() ), depth+1, partitions ) ].write( cursor.tag(), cursor.row() );
+				}
+				run.delete();
+				for (Run part : parts) distinct( part, depth+1, maxRows, kept, spillDirectory );
+			} finally {
+				for (Run part : parts) if (part != null) part.delete();
+			}
+			return;
+		}
+		run.delete();
+		Run keep = new Run( "creek-dedup-", spillDirectory );
+		kept.add( keep );
+		for (int i=0; i<distinct.rows.size(); i++) keep.write( numbers[i], distinct.rows.get(i) );
+		keep.close();
+	}
+
+	// rows added one at a time, each kept unless an equal row is in already; a primitive open-addressing
+	// set of fingerprints indexes them, as in mark()
+	private static class Distinct {
+
+		final List<List<String>> rows = new ArrayList<>();
+		private long[] slotPrints = new long[16];
+		private int[] slotRows = new int[16];
+
+		Distinct () {
+			Arrays.fill( slotRows, -1 );
+		}
+
+		// false for a duplicate
+		boolean add ( List<String> row ) {
+			long print = fingerprint( row );
+			int mask = slotRows.length-1;
+			int slot = (int)print & mask;
+			while (slotRows[slot] != -1) {
+				if (slotPrints[slot] == print && Objects.equals( rows.get( slotRows[slot] ), row )) return false;
+				slot = (slot+1) & mask;
+			}
+			slotPrints[slot] = print;
+			slotRows[slot] = rows.size();
+			rows.add( row );
+			// keep the table at most half full
+			if (rows.size()*2 > slotRows.length) grow();
+			return true;
+		}
+
+		private void grow () {
+			long[] oldPrints = slotPrints;
+			int[] oldRows = slotRows;
+			slotPrints = new long[ oldRows.length*2 ];
+			slotRows = new int[ oldRows.length*2 ];
+			Arrays.fill( slotRows, -1 );
+			int mask = slotRows.length-1;
+			for (int s=0; s<oldRows.length; s++) {
+				if (oldRows[s] == -1) continue;
+				int to = (int)oldPrints[s] & mask;
+				while (slotRows[to] != -1) to = (to+1) & mask;
+				slotPrints[to] = oldPrints[s];
+				slotRows[to] = oldRows[s];
+			}
+		}
+	}
+
+	private static class Head {
+		List<String> row;
+		long number;
+		Run.Cursor cursor;
+	}
+
+	// k-way merge of the runs by row number
+	private static long merge ( Run[] runs, File out, String comma ) throws Exception {
+		PriorityQueue<Head> heads = new PriorityQueue<>( runs.length, (a, b) -> Long.compare( a.number, b.number ) );
+		List<Run.Cursor> cursors = new ArrayList<>();
+		long written = 0;
+		try (Writer writer = writer( out )) {
+			for (Run run : runs) {
+				Head head = new Head();
+				head.cursor = run.cursor();
+				cursors.add( head.cursor );
+				if (advance( head )) heads.add( head );
+			}
+			CSV csv = new CSV( comma, "\\", "\"" );
+			while (! heads.isEmpty()) {
+				Head head = heads.poll();
+				csv.serialEscaped( head.row, writer );
+				written++;
+				if (advance( head )) heads.add( head );
+			}
+		} finally {
+			for (Run.Cursor cursor : cursors) cursor.close();
+		}
+		return written;
+	}
+
+	private static boolean advance ( Head head ) throws IOException {
+		if (! head.cursor.next()) return false;
+		head.row = head.cursor.row();
+		head.number = head.cursor.tag();
+		return true;
+	}
+
+	// written so that out parses back to exactly these rows
+	private static void write ( List<List<String>> rows, File file, String comma ) throws IOException {
+		try (Writer writer = writer( file )) {
+			CSV csv = new CSV( comma, "\\", "\"" );
+			for (List<String> row : rows) csv.serialEscaped( row, writer );
+		}
+	}
+
+	private static Writer writer ( File file ) throws IOException {
+		return new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ) ), 65536 );
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		Table letters = new SimpleTable(
+			"a 1\n"+
+			"b 2\n"+
+			"a 1\n"+
+			"c 3\n"+
+			"b 4\n"
+		);
+		System.out.println( "distinct rows:\n"+(new SimpleTable()).data( select( letters.data(), rows( letters.data() ) ) ) );
+		System.out.println( "distinct column 0 (latest row):\n"+(new SimpleTable()).data( select( letters.data(), rows( letters.data(), 0, 1 ) ) ) );
+
+		int count = ( args.length > 0 ? Integer.parseInt( args[0] ) : 1000000 );
+		Random random = new Random( 1 );
+		Table big = new SimpleTable();
+		for (int i=0; i<count; i++) big.append( new String[]{ "host"+random.nextInt(100), "user"+random.nextInt( count/10 ), String.valueOf( random.nextInt(4) ) } );
+		File in = null;
+		File out = null;
+		try {
+			Stats stats = new Stats( count+" rows" );
+			for (int round=0; round<2; round++) {
+				Set<List<String>> set = new LinkedHashSet<>( big.data() );
+				stats.display( "LinkedHashSet: "+set.size()+" rows" );
+				IntList ids = rows( big.data() );
+				stats.display( "fingerprint set: "+ids.size()+" rows" );
+				IntList parallel = rows( big.data(), ROW, 4 );
+				stats.display( "fingerprint set, 4 threads: "+parallel.size()+" rows" );
+				if (round == 0) System.out.println( "same rows, same order: "+( new ArrayList<>( set ).equals( select( big.data(), ids ) ) && ids.toString().equals( parallel.toString() ) ) );
+			}
+
+			in = File.createTempFile( "creek-dedup-in-", ".csv" );
+			out = File.createTempFile( "creek-dedup-out-", ".csv" );
+			(new CSVFile( in, false, big, "," )).close();
+			stats.delta();
+			long written = file( in, out, ",", count/8, null );
+			stats.display( "file, maxRows "+(count/8)+": "+written+" rows" );
+			List<List<String>> merged = new ArrayList<>();
+			try (CSVReader reader = CSVFile.reader( out, "," )) {
+				while (reader.hasNext()) merged.add( reader.next() );
+			}
+			System.out.println( "same rows, same order: "+merged.equals( select( big.data(), rows( big.data() ) ) ) );
+
+			// cells with quotes, backslashes, commas and line breaks come out as they went in, spilled or not;
+			// rows that only a lossy round trip would make equal stay apart
+			Table awkward = new SimpleTable();
+			String[] items = { "say \"hi\"", "say \"\"hi\"\"", "a\\b", "ab", "c:\\dir", "x,y", "line\nbreak", "\"", "" };
+			for (int i=0; i<300; i++) awkward.data().add( new ArrayList<>( Arrays.asList( items[ random.nextInt( items.length ) ], items[ random.nextInt( items.length ) ] ) ) );
+			awkward.data().add( new ArrayList<>( Arrays.asList( "" ) ) );
+			write( awkward.data(), in, "," );
+			List<List<String>> expected = select( awkward.data(), rows( awkward.data() ) );
+			for (int maxRows : new int[]{ Integer.MAX_VALUE, 2 }) {
+				written = file( in, out, ",", maxRows, null );
+				List<List<String>> read = new ArrayList<>();
+				try (CSVReader reader = CSVFile.reader( out, "," )) {
+					while (reader.hasNext()) read.add( reader.next() );
+				}
+				System.out.println( "awkward cells, maxRows "+( maxRows == Integer.MAX_VALUE ? "unlimited" : maxRows )+": "+written+" rows, "+( expected.equals( read ) ? "same rows" : "DIFFERENT ROWS" ) );
+			}
+
+			// skewed: a few rows repeated over and over, so one partition gets most of the input;
+			// it is held as its distinct rows, and split again when those are too many
+			Table skewed = new SimpleTable();
+			for (int i=0; i<count/10; i++) skewed.append( new String[]{ "repeated"+random.nextInt(3), "rare"+( random.nextInt(50) == 0 ? i : 0 ) } );
+			write( skewed.data(), in, "," );
+			expected = select( skewed.data(), rows( skewed.data() ) );
+			written = file( in, out, ",", 8, null );
+			List<List<String>> read = new ArrayList<>();
+			try (CSVReader reader = CSVFile.reader( out, "," )) {
+				while (reader.hasNext()) read.add( reader.next() );
+			}
+			System.out.println( "skewed, maxRows 8: "+written+" rows, "+( expected.equals( read ) ? "same rows" : "DIFFERENT ROWS" ) );
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (in != null) in.delete();
+			if (out != null) out.delete();
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+package creek;
+
+import java.util.*;
+
+public class FilterTable extends SimpleTable implements Filter {
+
+	// predicate kinds
+	private static final int RANGE = 0;
+	private static final int SET = 1;
+	private static final int SEARCH = 2;
+
+	private static class Predicate {
+		int kind;
+		int col;
+		String min; // RANGE, inclusive, null: open
+		String max;
+		Set<String> values; // SET
+		String partial; // SEARCH
+
+		boolean test ( List<String> row ) {
+			if (col < 0 || col >= row.size()) return false;
+			String item = row.get(col);
+			if (item == null) return false;
+			if (kind == RANGE) return ( min == null || item.compareTo( min ) >= 0 ) && ( max == null || item.compareTo( max ) <= 0 );
+			if (kind == SET) return values.contains( item );
+			return item.contains( partial );
+		}
+	}
+
+	// rows of 'source' that pass every predicate, found in one pass the first time they are needed
+	private class Selection extends AbstractList<List<String>> {
+
+		private IntList ids;
+
+		IntList ids () {
+			synchronized (FilterTable.this) {
+				if (ids == null) ids = evaluate();
+				return ids;
+			}
+		}
+
+		public List<String> get ( int row ) {
+			return source.data().get( ids().get( row ) );
+		}
+
+		public int size () {
+			return ids().size();
+		}
+	}
+
+	private Table source;
+	private List<Predicate> predicates;
+	private int limit; // -1: no limit
+
+
+	// constructors
+
+	public FilterTable ( Table table ) {
+		this( table, new ArrayList<Predicate>(), -1 );
+	}
+
+	public FilterTable () {
+		this( new SimpleTable() );
+	}
+
+	private FilterTable ( Table source, List<Predicate> predicates, int limit ) {
+		this.source = source;
+		this.predicates = predicates;
+		this.limit = limit;
+		data( new Selection() );
+	}
+
+	public Table create () {
+		return new FilterTable();
+	}
+
+
+	// evaluation
+
+	private boolean lazy () {
+		return ( data() instanceof Selection );
+	}
+
+	// one pass over the source rows (or an index's candidates), testing every predicate per row
+	private IntList evaluate () {
+		List<List<String>> rows = source.data();
+		IntList candidates = candidates();
+		int count = ( candidates != null ? candidates.size() : rows.size() );
+		IntList ids = new IntList();
+		for (int i=0; i<count && (limit < 0 || ids.size() < limit); i++) {
+			int id = ( candidates != null ? candidates.get(i) : i );
+			List<String> row = rows.get( id );
+			boolean pass = true;
+			for (Predicate predicate : predicates) {
+				if (!predicate.test( row )) {
+					pass = false;
+					break;
+				}
+			}
+			if (pass) ids.add( id );
+		}
+		return ids;
+	}
+
+	// row ids from the first predicate an IndexedTable source can answer, in row order; null: scan
+	private IntList candidates () {
+		if (!(source instanceof IndexedTable)) return null;
+		IndexedTable indexed = (IndexedTable)source;
+		for (Predicate predicate : predicates) {
+			if (predicate.kind == RANGE) {
+				IntList ids = indexed.rows( predicate.col, predicate.min, predicate.max );
+				if (ids != null) return ids.sort();
+			} else if (predicate.kind == SET) {
+				if (indexed.rows( predicate.col, "" ) == null) continue; // column not indexed
+				IntList ids = new IntList();
+				for (String value : predicate.values) ids.addAll( indexed.rows( predicate.col, value ) );
+				return ids.sort();
+			} else if (predicate.kind == SEARCH) {
+				IntList ids = indexed.search( predicate.col, predicate.partial );
+				if (ids != null) return ids;
+			}
+		}
+		return null;
+	}
+
+	// row ids in the source table
+	public IntList selection () {
+		if (lazy()) return ((Selection)data()).ids();
+		IntList ids = new IntList( rowCount() );
+		for (int i=0; i<rowCount(); i++) ids.add( i );
+		return ids;
+	}
+
+	// a filtered table stops being a view when it is written to
+	private void materialize () {
+		if (lazy()) super.data( new ArrayList<>( data() ) );
+	}
+
+	private FilterTable with ( Predicate predicate, int newLimit ) {
+		// chain onto the same source while nothing has been evaluated or written, otherwise filter this table
+		boolean chain = lazy() && ((Selection)data()).ids == null;
+		List<Predicate> chained = new ArrayList<>( chain ? predicates : new ArrayList<Predicate>() );
+		if (predicate != null) chained.add( predicate );
+		int chainedLimit = ( chain ? limit : -1 );
+		if (newLimit >= 0) chainedLimit = ( chainedLimit < 0 ? newLimit : Math.min( chainedLimit, newLimit ) );
+		return new FilterTable( ( chain ? source : this ), chained, chainedLimit );
+	}
+
+	private FilterTable between ( int column, String minVal, String maxVal ) {
+		Predicate predicate = new Predicate();
+		predicate.kind = RANGE;
+		predicate.col = column;
+		predicate.min = minVal;
+		predicate.max = maxVal;
+		return with( predicate, -1 );
+	}
+
+
+	// writing
+
+	@Override
+	public Table append ( List<String> row ) {
+		materialize();
+		return super.append( row );
+	}
+
+	@Override
+	public Table append ( String serial ) {
+		materialize();
+		return super.append( serial );
+	}
+
+
+	// Filter interface
+
+	public Filter first ( int rows ) {
+		return with( null, Math.max( 0, rows ) );
+	}
+
+	public Filter first ( int column, String lastVal ) {
+		return between( column, null, lastVal );
+	}
+
+	public Filter last ( int column, String firstVal ) {
+		return between( column, firstVal, null );
+	}
+
+	public Filter range ( int column, String minVal, String maxVal ) {
+		return between( column, minVal, maxVal );
+	}
+
+	public Filter set ( int column, Set<String> valSet ) {
+		Predicate predicate = new Predicate();
+		predicate.kind = SET;
+		predicate.col = column;
+		predicate.values = valSet;
+		return with( predicate, -1 );
+	}
+
+	public Filter search ( int column, String partialVal ) {
+		Predicate predicate = new Predicate();
+		predicate.kind = SEARCH;
+		predicate.col = column;
+		predicate.partial = partialVal;
+		return with( predicate, -1 );
+	}
+
+	// one pass, no sorting
+	public String min ( int column ) {
+		String min = null;
+		for (List<String> row : data()) {
+			String item = ( column >= 0 && column < row.size() ? row.get( column ) : null );
+			if (item != null && (min == null || item.compareTo( min ) < 0)) min = item;
+		}
+		return min;
+	}
+
+	public String max ( int column ) {
+		String max = null;
+		for (List<String> row : data()) {
+			String item = ( column >= 0 && column < row.size() ? row.get( column ) : null );
+			if (item != null && (max == null || item.compareTo( max ) > 0)) max = item;
+		}
+		return max;
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		FilterTable letters = new FilterTable(
+			new SimpleTable(
+				"a -\n"+
+				"b -\n"+
+				"g 1\n"+
+				"h 2\n"+
+				"k 3\n"+
+				"x -\n"+
+				"z -\n"
+			)
+		);
+		System.out.println( "range(0, c, m):\n"+letters.range( 0, "c", "m" ) );
+		System.out.println( "range(0, c, m).set(1, {1,3}):\n"+letters.range( 0, "c", "m" ).set( 1, new HashSet<>( Arrays.asList( "1", "3" ) ) ) );
+		System.out.println( "search(1, -).first(2):\n"+letters.search( 1, "-" ).first( 2 ) );
+		System.out.println( "min(0): "+letters.min(0)+", max(1) of range(0, c, m): "+letters.range( 0, "c", "m" ).max(1) );
+
+		if (args.length > 0) {
+			int count = Integer.parseInt( args[0] );
+			Table big = new SimpleTable();
+			for (int i=0; i<count; i++) big.append( new String[]{ "host"+(i%100), String.format( "%08d", i ), "user"+(i%1000) } );
+			IndexedTable indexed = new IndexedTable( big, new int[]{ 0 }, new int[]{ IndexedTable.HASH } );
+			IndexedTable searchable = (new IndexedTable( big, new int[]{ 0 }, new int[]{ IndexedTable.HASH } )).ngramIndex( 2, 3 );
+			Set<String> hosts = new HashSet<>( Arrays.asList( "host7", "host42" ) );
+			Stats stats = new Stats( count+" rows" );
+			for (int round=0; round<2; round++) {
+				int rows = 0;
+				for (int i=0; i<10; i++) rows += (new FilterTable( big )).set( 0, hosts ).range( 1, "00100000", "00400000" ).search( 2, "user7" ).rowCount();
+				stats.display( "10x set+range+search, scanning: "+rows+" rows" );
+				rows = 0;
+				for (int i=0; i<10; i++) rows += (new FilterTable( indexed )).set( 0, hosts ).range( 1, "00100000", "00400000" ).search( 2, "user7" ).rowCount();
+				stats.display( "10x set+range+search, HASH index on column 0: "+rows+" rows" );
+				rows = 0;
+				for (int i=0; i<10; i++) rows += (new FilterTable( searchable )).search( 2, "ser77" ).rowCount();
+				stats.display( "10x search, trigram index on column 2: "+rows+" rows" );
+				rows = 0;
+				for (int i=0; i<10; i++) rows += (new FilterTable( big )).search( 2, "ser77" ).rowCount();
+				stats.display( "10x search, scanning: "+rows+" rows" );
+			}
+		}
+	}
+
+}
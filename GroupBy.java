@@ -0,0 +1,430 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// hash aggregation: one row per group of key columns, then one column per aggregate
+public class GroupBy {
+
+	// aggregates
+	public static final int COUNT = 0;    // rows in the group
+	public static final int SUM = 1;      // numeric cells only; "" if there are none
+	public static final int MIN = 2;
+	public static final int MAX = 3;
+	public static final int AVG = 4;
+	public static final int DISTINCT = 5; // distinct non-null cells
+
+	// chunks under this many rows aren't worth a thread
+	private static final int MIN_CHUNK_ROWS = 10000;
+	// a run that still has too many groups is split again, up to this depth
+	private static final int MAX_SPILL_DEPTH = 4;
+
+	private Table table;
+	private int[] keyCols;
+	private IntList kinds = new IntList();
+	private IntList cols = new IntList();
+
+	private int maxGroups = Integer.MAX_VALUE; // groups held in memory by each aggregating task
+	private int threads = 1;
+	private File spillDirectory = null; // null: the system temp directory
+	private AtomicInteger spills = new AtomicInteger();
+
+
+	// the accumulators of one aggregating task, columnar and primitive, indexed by group id
+	private class Groups {
+
+		StringIntMap ids = new StringIntMap();
+		List<String[]> keys = new ArrayList<>();
+		long[] rows = new long[16];
+		long[] first = new long[16]; // input position of the group's first row, for spilled groups
+		double[][] values = new double[ kinds.size() ][16]; // SUM, AVG: sum; MIN, MAX: extreme
+		long[][] numbers = new long[ kinds.size() ][16];   // numeric cells seen
+		List<List<Set<String>>> distinct = new ArrayList<>();
+		int size;
+		int limit = maxGroups;
+
+		Groups () {
+			for (int a=0; a<kinds.size(); a++) distinct.add( kinds.get(a) == DISTINCT ? new ArrayList<>() : null );
+		}
+
+		// group id of key, a new one if there is room; -1 if there isn't
+		int group ( String key, String[] keyItems, long position ) {
+			int id = ids.getInt( key );
+			if (id >= 0) return id;
+			if (size >= limit) return -1;
+			id = size++;
+			ids.putInt( key, id );
+			keys.add( keyItems );
+			if (size > rows.length) {
+				int capacity = rows.length*2;
+				rows = Arrays.copyOf( rows, capacity );
+				first = Arrays.copyOf( first, capacity );
+				for (int a=0; a<kinds.size(); a++) {
+					values[a] = Arrays.copyOf( values[a], capacity );
+					numbers[a] = Arrays.copyOf( numbers[a], capacity );
+				}
+			}
+			first[id] = position;
+			for (int a=0; a<kinds.size(); a++) {
+				int kind = kinds.get(a);
+				values[a][id] = ( kind == MIN ? Double.POSITIVE_INFINITY : ( kind == MAX ? Double.NEGATIVE_INFINITY : 0 ) );
+				if (kind == DISTINCT) distinct.get(a).add( new HashSet<>() );
+			}
+			return id;
+		}
+
+		// false when the row needs a group there is no room for
+		boolean add ( List<String> row ) {
+			return add( row, 0 );
+		}
+
+		boolean add ( List<String> row, long position ) {
+			int id = group( key( row, keyCols ), null, position );
+			if (id < 0) return false;
+			if (keys.get(id) == null) keys.set( id, keyItems( row ) );
+			rows[id]++;
+			for (int a=0; a<kinds.size(); a++) {
+				int kind = kinds.get(a);
+				if (kind == COUNT) continue;
+				int col = cols.get(a);
+				String item = ( col >= 0 && col < row.size() ? row.get(col) : null );
+				if (item == null) continue;
+				if (kind == DISTINCT) {
+					distinct.get(a).get(id).add( item );
+					continue;
+				}
+				// each cell is parsed once, into the accumulators
+				double value = number( item );
+				if (Double.isNaN( value )) continue;
+				numbers[a][id]++;
+				if (kind == MIN) values[a][id] = Math.min( values[a][id], value );
+				else if (kind == MAX) values[a][id] = Math.max( values[a][id], value );
+				else values[a][id] += value;
+			}
+			return true;
+		}
+
+		// fold another task's groups into these (over the limit if need be)
+		void merge ( Groups other ) {
+			limit = Integer.MAX_VALUE;
+			int[] positions = new int[ keyCols.length ];
+			for (int i=0; i<positions.length; i++) positions[i] = i;
+			for (int g=0; g<other.size; g++) {
+				String[] keyItems = other.keys.get(g);
+				int id = group( key( Arrays.asList( keyItems ), positions ), keyItems, other.first[g] );
+				rows[id] += other.rows[g];
+				for (int a=0; a<kinds.size(); a++) {
+					int kind = kinds.get(a);
+					numbers[a][id] += other.numbers[a][g];
+					if (kind == MIN) values[a][id] = Math.min( values[a][id], other.values[a][g] );
+					else if (kind == MAX) values[a][id] = Math.max( values[a][id], other.values[a][g] );
+					else if (kind == DISTINCT) distinct.get(a).get(id).addAll( other.distinct.get(a).get(g) );
+					else values[a][id] += other.values[a][g];
+				}
+			}
+		}
+
+		// one row per group, in the order the groups were first seen
+		List<List<String>> result () {
+			List<List<String>> result = new ArrayList<>( size );
+			for (int id=0; id<size; id++) result.add( row( id ) );
+			return result;
+		}
+
+		// the same, by the input position of each group's first row
+		void result ( Map<Long,List<String>> byFirst ) {
+			for (int id=0; id<size; id++) byFirst.put( first[id], row( id ) );
+		}
+
+		private List<String> row ( int id ) {
+			List<String> row = new ArrayList<>( keyCols.length+kinds.size() );
+			row.addAll( Arrays.asList( keys.get(id) ) );
+			for (int a=0; a<kinds.size(); a++) {
+				int kind = kinds.get(a);
+				long n = numbers[a][id];
+				if (kind == COUNT) row.add( String.valueOf( rows[id] ) );
+				else if (kind == DISTINCT) row.add( String.valueOf( distinct.get(a).get(id).size() ) );
+				else if (n == 0) row.add( "" );
+				else if (kind == AVG) row.add( format( values[a][id]/n ) );
+				else row.add( format( values[a][id] ) );
+			}
+			return row;
+		}
+	}
+
+
+	// constructors
+
+	public GroupBy ( Table table, int... keyCols ) {
+		this.table = table;
+		this.keyCols = keyCols.clone();
+	}
+
+
+	// aggregates, in output column order
+
+	public GroupBy aggregate ( int kind, int col ) {
+		if (kind < COUNT || kind > DISTINCT) throw new IllegalArgumentException( "unknown aggregate: "+kind );
+		kinds.add( kind );
+		cols.add( col );
+		return this;
+	}
+
+	public GroupBy count () {
+		return aggregate( COUNT, -1 );
+	}
+
+	public GroupBy sum ( int col ) {
+		return aggregate( SUM, col );
+	}
+
+	public GroupBy min ( int col ) {
+		return aggregate( MIN, col );
+	}
+
+	public GroupBy max ( int col ) {
+		return aggregate( MAX, col );
+	}
+
+	public GroupBy avg ( int col ) {
+		return aggregate( AVG, col );
+	}
+
+	public GroupBy distinct ( int col ) {
+		return aggregate( DISTINCT, col );
+	}
+
+
+	// settings
+
+	// memory budget: past this many groups, a task spills its rows to runs partitioned by key
+	public GroupBy maxGroups ( int groups ) {
+		maxGroups = Math.max( 1, groups );
+		return this;
+	}
+
+	public GroupBy threads ( int count ) {
+		threads = Math.max( 1, count );
+		return this;
+	}
+
+	public GroupBy spillDirectory ( File directory ) {
+		spillDirectory = directory;
+		return this;
+	}
+
+	// runs written by the last table()
+	public int spills () {
+		return spills.get();
+	}
+
+
+	// aggregation
+
+	// groups in first-seen order, whether or not the budget forced a spill
+	public Table table () {
+		spills.set( 0 );
+		List<List<String>> rows = table.data();
+		List<List<String>> result = inMemory( rows );
+		if (result == null) {
+			try {
+				result = new ArrayList<>( spill( rows, null, 0, threads ).values() );
+			} catch (Exception e) {
+				throw new RuntimeException( e );
+			}
+		}
+		return (new SimpleTable()).data( result );
+	}
+
+	// chunks aggregated in parallel and merged in order; null if a chunk ran out of budget
+	private List<List<String>> inMemory ( List<List<String>> rows ) {
+		int count = rows.size();
+		int chunks = ( threads > 1 && count >= MIN_CHUNK_ROWS*2 ? Math.min( threads, count/MIN_CHUNK_ROWS ) : 1 );
+		if (chunks == 1) {
+			Groups groups = new Groups();
+			for (List<String> row : rows) if (! groups.add( row )) return null;
+			return groups.result();
+		}
+		ForkJoinPool pool = new ForkJoinPool( threads );
+		try {
+			List<Callable<Groups>> tasks = new ArrayList<>();
+			for (int k=0; k<chunks; k++) {
+				final int from = (int)( (long)count*k/chunks );
+				final int to = (int)( (long)count*(k+1)/chunks );
+				tasks.add( () -> {
+					Groups groups = new Groups();
+					for (int row=from; row<to; row++) if (! groups.add( rows.get(row) )) return null;
+					return groups;
+				} );
+			}
+			Groups merged = null;
+			for (Future<Groups> part : pool.invokeAll( tasks )) {
+				Groups groups = part.get();
+				if (groups == null) return null;
+				if (merged == null) merged = groups;
+				else merged.merge( groups );
+			}
+			return merged.result();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch (ExecutionException e) {
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// Grace-style: write the rows to runs by key hash, then aggregate each run on its own;
+	// the rows come from the table (source == null) or from a run that is split again
+	private Map<Long,List<String>> spill ( List<List<String>> rows, Run source, int depth, int runThreads ) throws Exception {
+		long count = ( source == null ? rows.size() : source.rows() );
+		// no more groups than rows, so this many runs average at most maxGroups groups each
+		int partitions = (int)Math.max( 2, Math.min( 256, count/maxGroups+1 ) );
+		Run[] runs = new Run[partitions];
+		try {
+			for (int p=0; p<partitions; p++) {
+				runs[p] = new Run( "creek-groupby-", spillDirectory );
+				spills.incrementAndGet();
+			}
+			// each row keeps its input position, so that the groups can be put back in first-seen order
+			if (source == null) {
+				long position = 0;
+				for (List<String> row : rows) {
+					runs[ partition( key( row, keyCols ), depth, partitions ) ].write( position++, row );
+				}
+			} else {
+				try (Run.Cursor cursor = source.cursor()) {
+					while (cursor.next()) runs[ partition( key( cursor.row(), keyCols ), depth, partitions ) ].write( cursor.tag(), cursor.row() );
+				}
+			}
+
+			List<Callable<Map<Long,List<String>>>> tasks = new ArrayList<>();
+			for (Run run : runs) tasks.add( () -> run( run, depth ) );
+			Map<Long,List<String>> result = new TreeMap<>();
+			if (runThreads == 1) {
+				for (Callable<Map<Long,List<String>>> task : tasks) result.putAll( task.call() );
+				return result;
+			}
+			ForkJoinPool pool = new ForkJoinPool( runThreads );
+			try {
+				for (Future<Map<Long,List<String>>> part : pool.invokeAll( tasks )) result.putAll( part.get() );
+			} finally {
+				pool.shutdown();
+			}
+			return result;
+		} finally {
+			for (Run run : runs) if (run != null) run.delete();
+		}
+	}
+
+	// aggregate one run, splitting it again if it still has too many groups
+	private Map<Long,List<String>> run ( Run run, int depth ) throws Exception {
+		Map<Long,List<String>> result = new TreeMap<>();
+		if (run.rows() == 0) return result;
+		Groups groups = new Groups();
+		// splitting isn't helping (e.g. one huge group): go over budget
+		if (depth+1 >= MAX_SPILL_DEPTH) groups.limit = Integer.MAX_VALUE;
+		boolean fits = true;
+		try (Run.Cursor cursor = run.cursor()) {
+			while (fits && cursor.next()) fits = groups.add( cursor.row(), cursor.tag() );
+		}
+		if (! fits) return spill( null, run, depth+1, 1 );
+		groups.result( result );
+		return result;
+	}
+
+
+	// keys and cells
+
+	// one key column as is; several length-prefixed so that no two key lists collide
+	private static String key ( List<String> row, int[] cols ) {
+		if (cols.length == 1) return ( cols[0] >= 0 && cols[0] < row.size() ? row.get( cols[0] ) : null );
+		StringBuilder key = new StringBuilder();
+		for (int col : cols) {
+			String item = ( col >= 0 && col < row.size() ? row.get( col ) : null );
+			if (item == null) key.append( '-' );
+			else key.append( item.length() ).append( ':' ).append( item );
+		}
+		return key.toString();
+	}
+
+	private String[] keyItems ( List<String> row ) {
+		String[] items = new String[ keyCols.length ];
+		for (int i=0; i<items.length; i++) items[i] = ( keyCols[i] >= 0 && keyCols[i] < row.size() ? row.get( keyCols[i] ) : null );
+		return items;
+	}
+
+	// a different hash at every depth, so that a run that is split again spreads out
+	private static int partition ( String key, int depth, int partitions ) {
+		int h = ( key == null ? 0 : key.hashCode() )*0x9E3779B9 + depth*0x85EBCA6B;
+		h ^= (h >>> 16);
+		return Math.floorMod( h, partitions );
+	}
+
+	// NaN if the cell isn't a number
+	private static double number ( String item ) {
+		if (item.isEmpty()) return Double.NaN;
+		char c = item.charAt(0);
+		if (!(c >= '0' && c <= '9') && c != '-' && c != '+' && c != '.') return Double.NaN; // skip the exception for plain text
+		try {
+			return Double.parseDouble( item );
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static String format ( double value ) {
+		if (value == Math.rint( value ) && Math.abs( value ) < 1e15) return String.valueOf( (long)value );
+		return String.valueOf( value );
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		Table sales = new SimpleTable(
+			"east  pens    3  1.50\n"+
+			"west  pens    5  1.50\n"+
+			"east  paper   10 0.25\n"+
+			"east  pens    2  1.75\n"+
+			"west  ink     1  n/a\n"
+		);
+		System.out.println( "groupBy(0).count().sum(2).avg(3).distinct(1):\n"+Tables.groupBy( sales, 0 ).count().sum(2).avg(3).distinct(1).table() );
+		System.out.println( "groupBy(0, 1).min(3).max(3):\n"+Tables.groupBy( sales, 0, 1 ).min(3).max(3).table() );
+
+		// spilled runs give back every cell as it went in: backslashes, quotes, nulls and short rows
+		Table awkward = new SimpleTable();
+		String[] awkwardKeys = { "a\\b", "c:\\dir", "say \"hi\"", "\"", "x,y", "line\nbreak", "", null };
+		for (int i=0; i<200; i++) {
+			String key = awkwardKeys[ i%awkwardKeys.length ];
+			awkward.data().add( ( i%5 == 4 ? new ArrayList<>( Arrays.asList( key ) ) : new ArrayList<>( Arrays.asList( key, String.valueOf(i), ( i%3 == 0 ? null : "v"+(i%4) ) ) ) ) );
+		}
+		Table inMemory = Tables.groupBy( awkward, 0 ).count().sum(1).distinct(2).table();
+		GroupBy spilled = Tables.groupBy( awkward, 0 ).count().sum(1).distinct(2).maxGroups(2);
+		System.out.println( "maxGroups(2) on awkward cells: "+( spilled.table().data().equals( inMemory.data() ) ? "same as in memory" : "DIFFERENT" )+", "+( spilled.spills() > 0 ? "spilled" : "not spilled" ) );
+
+		if (args.length > 0) {
+			int rows = Integer.parseInt( args[0] );
+			int keys = ( args.length > 1 ? Integer.parseInt( args[1] ) : rows/10 );
+			Random random = new Random( 1 );
+			Table big = new SimpleTable();
+			for (int i=0; i<rows; i++) big.append( new String[]{ "key"+random.nextInt( keys ), String.valueOf( random.nextInt(1000) ), "user"+random.nextInt(100) } );
+			Stats stats = new Stats( rows+" rows, "+keys+" keys" );
+			for (int round=0; round<2; round++) {
+				Table expected = null;
+				for (int threads : new int[]{ 1, 4 }) {
+					Table result = Tables.groupBy( big, 0 ).count().sum(1).min(1).max(1).avg(1).distinct(2).threads( threads ).table();
+					stats.display( "in memory, "+threads+" thread(s): "+result.rowCount()+" groups" );
+					if (expected == null) expected = result;
+				}
+				GroupBy spilling = Tables.groupBy( big, 0 ).count().sum(1).min(1).max(1).avg(1).distinct(2).maxGroups( keys/8+1 );
+				Table result = spilling.table();
+				stats.display( "maxGroups("+(keys/8+1)+"): "+result.rowCount()+" groups, "+spilling.spills()+" runs, same as in memory: "+result.data().equals( expected.data() ) );
+			}
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+public class GroupCommit implements Closeable {
+
+	private static class Pending {
+		List<String> row;
+		CompletableFuture<Void> done = new CompletableFuture<>();
+
+		Pending ( List<String> row ) {
+			this.row = row;
+		}
+	}
+
+	private File file;
+	private CSV format;
+	private Charset charset = Charset.defaultCharset();
+	private Consumer<List<String>> committed;
+
+	private int maxBatch;
+	private long maxLatencyNanos;
+
+	private LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+	private volatile boolean running = true;
+	private CompletableFuture<Void> last = CompletableFuture.completedFuture( null );
+	private Thread writer;
+	private FileChannel channel;
+
+	// metrics
+	private long batches;
+	private long rows;
+	private int largestBatch;
+
+
+	// committed: called with every row once it is on disk, in file order
+	public GroupCommit ( File file, CSV format, int maxBatch, long maxLatencyMillis, Consumer<List<String>> committed ) {
+		this.file = file;
+		this.format = format;
+		this.maxBatch = Math.max( 1, maxBatch );
+		this.maxLatencyNanos = Math.max( 0, maxLatencyMillis )*1000000L;
+		this.committed = committed;
+		writer = new Thread( this::run, "GroupCommit "+file.getName() );
+		writer.setDaemon( true );
+		writer.start();
+	}
+
+
+	// appenders
+
+	// completes once the row has been written and forced to disk
+	public CompletableFuture<Void> submit ( List<String> row ) {
+		Pending pending = new Pending( row );
+		synchronized (queue) {
+			if (!running) throw new IllegalStateException( "GroupCommit is closed" );
+			last = pending.done;
+			queue.add( pending );
+		}
+		return pending.done;
+	}
+
+	// wait for every row submitted so far
+	public void sync () throws Exception {
+		try {
+			CompletableFuture<Void> waitFor;
+			synchronized (queue) {
+				waitFor = last;
+			}
+			waitFor.get();
+		} catch (ExecutionException e) {
+			// that row failed, but it has been dealt with
+		}
+	}
+
+	// sync, then let go of the file (it is reopened by the next batch)
+	public void release () throws Exception {
+		sync();
+		synchronized (this) {
+			if (channel != null) channel.close();
+			channel = null;
+		}
+	}
+
+	public void close () throws IOException {
+		synchronized (queue) {
+			running = false;
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (channel != null) channel.close();
+			channel = null;
+		}
+	}
+
+
+	// writer thread
+
+	private void run () {
+		List<Pending> batch = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				Pending first = queue.poll( 100, TimeUnit.MILLISECONDS );
+				if (first == null) continue;
+				batch.add( first );
+				queue.drainTo( batch, maxBatch-1 );
+				// wait up to maxLatency after the first row for the batch to fill
+				long deadline = System.nanoTime()+maxLatencyNanos;
+				while (batch.size() < maxBatch) {
+					long wait = deadline-System.nanoTime();
+					Pending next = ( wait > 0 ? queue.poll( wait, TimeUnit.NANOSECONDS ) : queue.poll() );
+					if (next == null) break;
+					batch.add( next );
+					queue.drainTo( batch, maxBatch-batch.size() );
+				}
+			} catch (InterruptedException e) {
+				if (batch.isEmpty()) continue;
+			}
+			commit( batch );
+			batch.clear();
+		}
+	}
+
+	private void commit ( List<Pending> batch ) {
+		try {
+			// one gathering write and one force() per batch
+			ByteBuffer[] buffers = new ByteBuffer[ batch.size() ];
+			long total = 0;
+			StringBuilder line = new StringBuilder();
+			for (int i=0; i<buffers.length; i++) {
+				line.setLength( 0 );
+				format.serial( batch.get(i).row, line );
+				buffers[i] = charset.encode( CharBuffer.wrap( line ) );
+				total += buffers[i].remaining();
+			}
+			synchronized (this) {
+				if (channel == null) channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+				long written = 0;
+				while (written < total) written += channel.write( buffers );
+				channel.force( false );
+				batches++;
+				rows += batch.size();
+				if (batch.size() > largestBatch) largestBatch = batch.size();
+			}
+			for (Pending pending : batch) committed.accept( pending.row );
+			for (Pending pending : batch) pending.done.complete( null );
+		} catch (Exception e) {
+			for (Pending pending : batch) pending.done.completeExceptionally( e );
+		}
+	}
+
+
+	// metrics
+
+	public synchronized long batches () {
+		return batches;
+	}
+
+	public synchronized long rows () {
+		return rows;
+	}
+
+	public synchronized int largestBatch () {
+		return largestBatch;
+	}
+
+	public synchronized double averageBatch () {
+		return ( batches > 0 ? (double)rows/batches : 0.0 );
+	}
+
+	public String toString () {
+		return "GroupCommit "+file.getName()+": "+rows()+" rows in "+batches()+" batches, average "+String.format( "%.1f", averageBatch() )+", largest "+largestBatch();
+	}
+
+}
@@ -4,7 +4,60 @@ import java.util.*;
 
 public class IndexedTable extends SimpleTable implements SetTable {
 
-	private Map<Integer,NavigableMap<String,List<String>>> index = new HashMap<>();
+	// index types
+	public static final int ORDERED = 0; // TreeMap: point lookups and ranges
+	public static final int HASH = 1;    // HashMap: point lookups; ranges scan the keys
+
+	// postings: the ids of every row holding a key, in row order (so duplicates are kept)
+	private static class Index {
+		int type;
+		Map<String,IntList> postings;
+
+		Index ( int type ) {
+			this.type = type;
+			postings = ( type == HASH ? new HashMap<>() : new TreeMap<>() );
+		}
+	}
+
+	private Map<Integer,Index> index = new HashMap<>();
+	
+	// composite indexes over several columns, keys ordered column by column
+	private Map<List<Integer>,TreeMap<List<String>,IntList>> composite = new HashMap<>();
+	
+	// substring indexes for search()
+	private Map<Integer,NGramIndex> ngrams = new HashMap<>();
+	
+	private static final Comparator<List<String>> KEY_ORDER = (a, b) -> {
+		int length = Math.min( a.size(), b.size() );
+		for (int i=0; i<length; i++) {
+			int c = a.get(i).compareTo( b.get(i) );
+			if (c != 0) return c;
+		}
+		return Integer.compare( a.size(), b.size() ); // a prefix sorts before its extensions
+	};
+	
+	// read-only rows of the parent picked by id
+	private static class Selection extends AbstractList<List<String>> {
+	
+		private final List<List<String>> rows;
+		private final IntList ids;
+		
+		Selection ( List<List<String>> rows, IntList ids ) {
+			this.rows = rows;
+			this.ids = ids;
+		}
+		
+		public List<String> get ( int row ) {
+			return rows.get( ids.get( row ) );
+		}
+		
+		public int size () {
+			return ids.size();
+		}
+	}
+	private boolean indexAll = true; // until columns are declared, every column gets an ORDERED index
+	private List<List<String>> indexedData;
+	private int indexedRows;
 	
 
 	public IndexedTable () {
@@ -19,42 +72,215 @@ public class IndexedTable extends SimpleTable implements SetTable {
 		for (List<String> row : rows) append( row );
 	}
 	
+	// only the declared columns are indexed, cols[i] with types[i]
+	public IndexedTable ( Table table, int[] cols, int[] types ) {
+		for (int i=0; i<cols.length; i++) index( cols[i], types[i] );
+		for (List<String> row : table.data()) append( row );
+	}
+	
+	
+	// declare an indexed column (the first declaration drops the index-everything default)
+	public synchronized IndexedTable index ( int col, int type ) {
+		if (indexAll) {
+			indexAll = false;
+			index.clear();
+		}
+		Index columnIndex = new Index( type );
+		index.put( col, columnIndex );
+		List<List<String>> rows = data();
+		for (int id=0; id<indexedRows; id++) add( columnIndex, col, id, rows.get(id) );
+		return this;
+	}
+	
+	private void add ( Index columnIndex, int col, int id, List<String> row ) {
+		if (col >= row.size() || row.get(col) == null) return;
+		IntList ids = columnIndex.postings.get( row.get(col) );
+		if (ids == null) columnIndex.postings.put( row.get(col), ids = new IntList() );
+		ids.add( id );
+	}
+	
+	// declare a composite index over cols, for prefix lookups and ranges on the column after the prefix
+	public synchronized IndexedTable compositeIndex ( int... cols ) {
+		List<Integer> key = new ArrayList<>();
+		for (int col : cols) key.add( col );
+		TreeMap<List<String>,IntList> columnsIndex = new TreeMap<>( KEY_ORDER );
+		composite.put( key, columnsIndex );
+		List<List<String>> rows = data();
+		for (int id=0; id<indexedRows; id++) add( columnsIndex, key, id, rows.get(id) );
+		return this;
+	}
+	
+	private void add ( TreeMap<List<String>,IntList> columnsIndex, List<Integer> cols, int id, List<String> row ) {
+		String[] values = new String[ cols.size() ];
+		for (int i=0; i<values.length; i++) {
+			int col = cols.get(i);
+			if (col >= row.size() || row.get(col) == null) return; // only complete keys are indexed
+			values[i] = row.get(col);
+		}
+		List<String> key = Arrays.asList( values );
+		IntList ids = columnsIndex.get( key );
+		if (ids == null) columnsIndex.put( key, ids = new IntList() );
+		ids.add( id );
+	}
+	
+	// declare an n-gram index for substring search on col
+	public synchronized IndexedTable ngramIndex ( int col, int n ) {
+		NGramIndex columnIndex = new NGramIndex( n );
+		ngrams.put( col, columnIndex );
+		List<List<String>> rows = data();
+		for (int id=0; id<indexedRows; id++) add( columnIndex, col, id, rows.get(id) );
+		return this;
+	}
+	
+	private void add ( NGramIndex columnIndex, int col, int id, List<String> row ) {
+		columnIndex.add( id, ( col < row.size() ? row.get(col) : null ) );
+	}
+	
+	// index rows added since the last call, however they got into data()
+	private synchronized void catchUp () {
+		List<List<String>> rows = data();
+		if (rows != indexedData) {
+			for (Index columnIndex : index.values()) columnIndex.postings.clear();
+			for (TreeMap<List<String>,IntList> columnsIndex : composite.values()) columnsIndex.clear();
+			for (Map.Entry<Integer,NGramIndex> entry : ngrams.entrySet()) entry.setValue( new NGramIndex( entry.getValue().n() ) );
+			indexedData = rows;
+			indexedRows = 0;
+		}
+		for (; indexedRows<rows.size(); indexedRows++) {
+			List<String> row = rows.get( indexedRows );
+			if (indexAll) {
+				for (int col=0; col<row.size(); col++) if (! index.containsKey(col)) index.put( col, new Index( ORDERED ) );
+			}
+			for (Map.Entry<Integer,Index> entry : index.entrySet()) add( entry.getValue(), entry.getKey(), indexedRows, row );
+			for (Map.Entry<List<Integer>,TreeMap<List<String>,IntList>> entry : composite.entrySet()) add( entry.getValue(), entry.getKey(), indexedRows, row );
+			for (Map.Entry<Integer,NGramIndex> entry : ngrams.entrySet()) add( entry.getValue(), entry.getKey(), indexedRows, row );
+		}
+	}
 
 	@Override
-	public Table append ( List<String> row ) {
-		for (int i=0; i<row.size(); i++) {
-			if (! index.containsKey(i)) index.put( i, new TreeMap<>() );
-			index.get(i).put( row.get(i), row );
+	public synchronized Table append ( List<String> row ) {
+		super.append( row );
+		catchUp();
+		return this;
+	}
+	
+	
+	// row ids
+	
+	// ids of the rows whose column equals key (do not modify), or null if the column isn't indexed
+	public synchronized IntList rows ( int col, String key ) {
+		catchUp();
+		if (! index.containsKey(col)) return null;
+		IntList ids = index.get(col).postings.get( key );
+		return ( ids != null ? ids : new IntList() );
+	}
+	
+	// ids of the rows with from <= column <= to (null: open end), in key order
+	public synchronized IntList rows ( int col, String from, String to ) {
+		catchUp();
+		if (! index.containsKey(col)) return null;
+		Index columnIndex = index.get(col);
+		IntList ids = new IntList();
+		for (IntList posting : range( columnIndex, from, to ).values()) ids.addAll( posting );
+		return ids;
+	}
+	
+	private NavigableMap<String,IntList> range ( Index columnIndex, String from, String to ) {
+		NavigableMap<String,IntList> keys;
+		if (columnIndex.type == ORDERED) {
+			keys = (NavigableMap<String,IntList>)columnIndex.postings;
+		} else {
+			keys = new TreeMap<>( columnIndex.postings ); // hash index: sort the keys for this query
 		}
-		return super.append( row );
+		if (from != null && to != null) return ( from.compareTo( to ) > 0 ? new TreeMap<>() : keys.subMap( from, true, to, true ) );
+		if (from != null) return keys.tailMap( from, true );
+		if (to != null) return keys.headMap( to, true );
+		return keys;
+	}
+	
+	// ids of the rows whose first columns equal prefix, in key order; null if cols has no composite index
+	public IntList rows ( int[] cols, String... prefix ) {
+		return rows( cols, prefix, null, null );
 	}
+	
+	// ... and whose next column is between from and to (inclusive, null: open end)
+	public synchronized IntList rows ( int[] cols, String[] prefix, String from, String to ) {
+		catchUp();
+		List<Integer> key = new ArrayList<>();
+		for (int col : cols) key.add( col );
+		TreeMap<List<String>,IntList> columnsIndex = composite.get( key );
+		if (columnsIndex == null) return null;
+		int length = prefix.length;
+		if (length > cols.length) return new IntList();
+		List<String> lower = new ArrayList<>( Arrays.asList( prefix ) );
+		if (from != null && length < cols.length) lower.add( from );
+		IntList ids = new IntList();
+		for (Map.Entry<List<String>,IntList> entry : columnsIndex.tailMap( lower, true ).entrySet()) {
+			List<String> values = entry.getKey();
+			if (KEY_ORDER.compare( values.subList( 0, length ), Arrays.asList( prefix ) ) != 0) break;
+			if (to != null && length < cols.length && values.get( length ).compareTo( to ) > 0) break;
+			ids.addAll( entry.getValue() );
+		}
+		return ids;
+	}
+	
+	// ids of the rows whose column contains partial, or null if the column has no n-gram index
+	public synchronized IntList search ( int col, String partial ) {
+		catchUp();
+		NGramIndex columnIndex = ngrams.get( col );
+		if (columnIndex == null) return null;
+		return columnIndex.search( data(), col, partial );
+	}
+	
+	// view of the rows with these ids (no copies; read-only)
+	public synchronized Table view ( IntList ids ) {
+		return (new SimpleTable()).data( new Selection( data(), ids ) );
+	}
+	
+	// "host X between t0 and t1": view of the rows matching prefix with the next column in [from,to]
+	public Table slice ( int[] cols, String[] prefix, String from, String to ) {
+		IntList ids = rows( cols, prefix, from, to );
+		return ( ids != null ? view( ids ) : null );
+	}
+	
+	// the rows with these ids, indexed like this table
+	public synchronized IndexedTable table ( IntList ids ) {
+		IndexedTable table = new IndexedTable();
+		if (! indexAll) for (Map.Entry<Integer,Index> entry : index.entrySet()) table.index( entry.getKey(), entry.getValue().type );
+		List<List<String>> rows = data();
+		for (int i=0; i<ids.size(); i++) table.append( rows.get( ids.get(i) ) );
+		return table;
+	}
+	
 
 	// SetTable interface
-
-	public SetTable set ( int col ) {
+	
+	// one row per key (the last one with that key), in key order
+	public synchronized SetTable set ( int col ) {
+		catchUp();
 		if (! index.containsKey(col)) return null;
-		return new IndexedTable( index.get(col).values() );
+		IntList ids = new IntList();
+		for (IntList posting : range( index.get(col), null, null ).values()) ids.add( posting.last() );
+		return table( ids );
 	}
 
-	public SetTable setReverse ( int col ) {
+	public synchronized SetTable setReverse ( int col ) {
+		catchUp();
 		if (! index.containsKey(col)) return null;
-		return new IndexedTable( index.get(col).descendingMap().values() );
+		IntList ids = new IntList();
+		for (IntList posting : range( index.get(col), null, null ).descendingMap().values()) ids.add( posting.last() );
+		return table( ids );
 	}
 
 	public SetTable last ( int col, String thisAndFollowing ) {
-		return slice( col, thisAndFollowing, index.get(col).lastEntry().getKey() );
+		return slice( col, thisAndFollowing, null );
 	}
 	
+	// both keys inclusive; every row in the range, in key order
 	public SetTable slice ( int col, String thisAndFollowing, String approachingThisLimit ) {
-		if (! index.containsKey(col)) return null;
-		// get the column index
-		NavigableMap<String,List<String>> thisCol = index.get(col);
-		// get the beginning and ending keys (both keys inclusive if exact match or closest possible enclosed keys)
-		thisAndFollowing = thisCol.ceilingKey( thisAndFollowing );
-		approachingThisLimit = thisCol.floorKey( approachingThisLimit );
-		if (thisAndFollowing==null || approachingThisLimit==null) return null;
-		// return submap as new IndexedTable
-		return new IndexedTable( thisCol.subMap( thisAndFollowing, true, approachingThisLimit, true ).values() );
+		IntList ids = rows( col, thisAndFollowing, approachingThisLimit );
+		if (ids == null || ids.isEmpty()) return null;
+		return table( ids );
 	}
 	
 	
@@ -75,6 +301,40 @@ public class IndexedTable extends SimpleTable implements SetTable {
 		// inherited
 		System.out.println( "Inherited last(3):\n"+indexed.last( 3 ) );
 		System.out.println( "Inherited slice(-1, 2, 0, 2):\n"+indexed.slice( -1, 2, 0, 2 ) );
+		// duplicates are kept
+		System.out.println( "slice(col 0, a-a):\n"+indexed.slice( 0, "a", "a" ) );
+		// declared indexes only
+		IndexedTable declared = new IndexedTable( simple, new int[]{ 0, 1 }, new int[]{ HASH, ORDERED } );
+		System.out.println( "HASH rows(col 0, a): "+declared.rows( 0, "a" ) );
+		System.out.println( "ORDERED rows(col 1, f-s): "+declared.rows( 1, "f", "s" ) );
+		
+		// composite index: prefix lookup and a range on the next column
+		IndexedTable hosts = new IndexedTable( new SimpleTable(
+			"h1 10:00 a\n"+
+			"h2 10:01 b\n"+
+			"h1 10:02 c\n"+
+			"h1 10:05 d\n"+
+			"h2 10:03 e\n"
+		) ).compositeIndex( 0, 1 );
+		System.out.println( "h1 between 10:01 and 10:04:\n"+hosts.slice( new int[]{ 0, 1 }, new String[]{ "h1" }, "10:01", "10:04" ) );
+		System.out.println( "h2:\n"+hosts.slice( new int[]{ 0, 1 }, new String[]{ "h2" }, null, null ) );
+		
+		if (args.length > 0) {
+			int count = Integer.parseInt( args[0] );
+			Table big = new SimpleTable();
+			for (int i=0; i<count; i++) big.append( new String[]{ "host"+(i%100), String.valueOf(i), "user"+(i%1000), "x", "y" } );
+			System.gc();
+			Stats stats = new Stats( count+" rows" );
+			IndexedTable all = new IndexedTable( big );
+			System.gc();
+			stats.display( "every column ORDERED, "+all.rows( 0, "host7" ).size()+" rows for host7" );
+			all = null;
+			System.gc();
+			stats.deltaMemory();
+			IndexedTable one = new IndexedTable( big, new int[]{ 0 }, new int[]{ HASH } );
+			System.gc();
+			stats.display( "column 0 HASH only, "+one.rows( 0, "host7" ).size()+" rows for host7" );
+		}
 	}
 
 }
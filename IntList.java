@@ -0,0 +1,75 @@
+package creek;
+
+import java.util.*;
+
+// growable int[], e.g. a list of row ids
+public class IntList {
+
+	private int[] values;
+	private int size;
+
+
+	public IntList () {
+		this( 2 );
+	}
+
+	public IntList ( int capacity ) {
+		values = new int[ Math.max( 1, capacity ) ];
+	}
+
+	public IntList ( int[] values ) {
+		this.values = Arrays.copyOf( values, Math.max( 1, values.length ) );
+		size = values.length;
+	}
+
+
+	public IntList add ( int value ) {
+		if (size == values.length) values = Arrays.copyOf( values, size + (size >> 1) + 1 );
+		values[size++] = value;
+		return this;
+	}
+
+	public IntList addAll ( IntList list ) {
+		if (size + list.size > values.length) values = Arrays.copyOf( values, Math.max( size + list.size, size*2 ) );
+		System.arraycopy( list.values, 0, values, size, list.size );
+		size += list.size;
+		return this;
+	}
+
+	public int get ( int index ) {
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException( "index "+index );
+		return values[index];
+	}
+
+	public int size () {
+		return size;
+	}
+
+	public boolean isEmpty () {
+		return size == 0;
+	}
+
+	public int last () {
+		return get( size-1 );
+	}
+
+	public IntList sort () {
+		Arrays.sort( values, 0, size );
+		return this;
+	}
+
+	public int[] toArray () {
+		return Arrays.copyOf( values, size );
+	}
+
+	// release unused capacity
+	public IntList trim () {
+		if (values.length > size) values = Arrays.copyOf( values, Math.max( 1, size ) );
+		return this;
+	}
+
+	public String toString () {
+		return Arrays.toString( toArray() );
+	}
+
+}
@@ -6,52 +6,168 @@ public class LookupTable extends SimpleTable {
 
 	private Map<String,Integer> emptyMap = new HashMap<>();
 	
-	private Map<Integer,Map<String,Integer>> rowLookupCol;
-	private Map<Integer,Map<String,Integer>> colLookupRow;
+	private Map<Integer,StringIntMap> rowLookupCol;
+	private LinkedHashMap<Integer,StringIntMap> colLookupRow; // least recently used first
+	
+	// the rows the lookups have seen
+	private List<List<String>> lookedUpData;
+	private int lookedUpRows;
+	
+	// cap on the entries held by column lookups; cold columns are dropped first
+	private long maxEntries = Long.MAX_VALUE;
 	
 	
 	public LookupTable ( Table table ) {
 		super( table );
-		rowLookupCol = new LinkedHashMap<>();
-		colLookupRow = new LinkedHashMap<>();
+		rowLookupCol = new HashMap<>();
+		colLookupRow = new LinkedHashMap<>( 16, 0.75f, true );
 	}
 	
-
-
-	public Map<String,Integer> rowLookup ( int keyRow ) {
-		if (keyRow >= rowCount()) return emptyMap;
-		if (! rowLookupCol.containsKey(keyRow)) {
-			Map<String,Integer> map = new LinkedHashMap<>();
-			int i=0;
-			for (String item : data().get(keyRow)) {
-				map.put( item, i++ );
+	public synchronized LookupTable maxEntries ( long entries ) {
+		maxEntries = Math.max( 1, entries );
+		evict();
+		return this;
+	}
+	
+	public synchronized long entries () {
+		long entries = 0;
+		for (StringIntMap map : colLookupRow.values()) entries += map.size();
+		return entries;
+	}
+	
+	public synchronized Set<Integer> lookupCols () {
+		return new LinkedHashSet<>( colLookupRow.keySet() );
+	}
+	
+	private void evict () {
+		long entries = entries();
+		Iterator<StringIntMap> coldest = colLookupRow.values().iterator();
+		// always keep the most recently used column
+		while (entries > maxEntries && colLookupRow.size() > 1) {
+			entries -= coldest.next().size();
+			coldest.remove();
+		}
+	}
+	
+	
+	// keeping the lookups current
+	
+	private StringIntMap buildRow ( int keyRow ) {
+		List<String> row = data().get(keyRow);
+		StringIntMap map = new StringIntMap( row.size() );
+		int i=0;
+		for (String item : row) {
+			map.putInt( item, i++ );
+		}
+		return map;
+	}
+	
+	private StringIntMap buildCol ( int keyCol ) {
+		List<List<String>> rows = data();
+		StringIntMap map = new StringIntMap();
+		for (int row=0; row<lookedUpRows; row++) {
+			if (keyCol < rows.get(row).size()) {
+				map.putInt( rows.get(row).get(keyCol), row );
+			}
+		}
+		return map;
+	}
+	
+	// extend the column lookups with rows added since the last call, however they got into data()
+	private void catchUp () {
+		List<List<String>> rows = data();
+		if (rows != lookedUpData) {
+			rowLookupCol.clear();
+			colLookupRow.clear();
+			lookedUpData = rows;
+			lookedUpRows = 0;
+		}
+		int size = rows.size();
+		if (lookedUpRows == size) return;
+		for (Map.Entry<Integer,StringIntMap> entry : colLookupRow.entrySet()) {
+			int keyCol = entry.getKey();
+			StringIntMap map = entry.getValue();
+			for (int row=lookedUpRows; row<size; row++) {
+				if (keyCol < rows.get(row).size()) map.putInt( rows.get(row).get(keyCol), row );
 			}
+		}
+		lookedUpRows = size;
+		evict();
+	}
+	
+	@Override
+	public synchronized Table append ( List<String> row ) {
+		super.append( row );
+		catchUp();
+		return this;
+	}
+	
+	// lookups that held a replaced value are rebuilt; the rest are kept
+	@Override
+	public synchronized Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
+		catchUp();
+		super.replace( replacements, row0, col0, row1, col1 );
+		for (Map.Entry<Integer,StringIntMap> entry : colLookupRow.entrySet()) {
+			int keyCol = entry.getKey();
+			if (keyCol < col0 || (col1 >= 0 && keyCol >= col1)) continue;
+			if (replaced( entry.getValue(), replacements )) entry.setValue( buildCol( keyCol ) );
+		}
+		for (Map.Entry<Integer,StringIntMap> entry : rowLookupCol.entrySet()) {
+			int keyRow = entry.getKey();
+			if (keyRow < row0 || (row1 >= 0 && keyRow >= row1)) continue;
+			if (replaced( entry.getValue(), replacements )) entry.setValue( buildRow( keyRow ) );
+		}
+		return this;
+	}
+	
+	private boolean replaced ( StringIntMap map, Map<String,String> replacements ) {
+		for (Map.Entry<String,String> replacement : replacements.entrySet()) {
+			if (replacement.getKey() != null && ! replacement.getKey().equals( replacement.getValue() ) && map.containsKey( replacement.getKey() )) return true;
+		}
+		return false;
+	}
+	
+	
+	// lookups
+
+	public synchronized Map<String,Integer> rowLookup ( int keyRow ) {
+		catchUp();
+		if (keyRow < 0 || keyRow >= rowCount()) return emptyMap;
+		StringIntMap map = rowLookupCol.get(keyRow);
+		if (map == null) {
+			map = buildRow( keyRow );
 			rowLookupCol.put( keyRow, map );
-			return map;
-		} else {
-			return rowLookupCol.get(keyRow);
 		}
+		return map;
 	}
 	
-	public Map<String,Integer> colLookup ( int keyCol ) {
+	public synchronized Map<String,Integer> colLookup ( int keyCol ) {
+		catchUp();
 		if (keyCol < 0) return emptyMap;
-		if (! colLookupRow.containsKey(keyCol)) {
-			Map<String,Integer> map = new LinkedHashMap<>();
-			for (int row=0; row<data().size(); row++) {
-				if (keyCol < data().get(row).size()) {
-					map.put( data().get(row).get(keyCol), row );
-				}
-			}
+		StringIntMap map = colLookupRow.get(keyCol);
+		if (map == null) {
+			map = buildCol( keyCol );
 			colLookupRow.put( keyCol, map );
-			return map;
-		} else {
-			return colLookupRow.get(keyCol);
+			evict();
 		}
+		return map;
+	}
+	
+	// column index of key in keyRow, or -1
+	private synchronized int rowIndex ( int keyRow, String key ) {
+		Map<String,Integer> map = rowLookup( keyRow );
+		return ( map instanceof StringIntMap ? ((StringIntMap)map).getInt( key ) : -1 );
+	}
+	
+	// row index of key in keyCol, or -1
+	private synchronized int colIndex ( int keyCol, String key ) {
+		Map<String,Integer> map = colLookup( keyCol );
+		return ( map instanceof StringIntMap ? ((StringIntMap)map).getInt( key ) : -1 );
 	}
 	
 	public String rowLookup ( int keyRow, int valRow, String key ) {
 		if (keyRow >= rowCount() || valRow >= rowCount() || keyRow < 0 || valRow < 0) return "";
-		Integer col = rowLookup( keyRow ).get( key );
+		int col = rowIndex( keyRow, key );
 		try {
 			return data().get(valRow).get(col);
 		} catch (Exception e) {
@@ -61,7 +177,7 @@ public class LookupTable extends SimpleTable {
 	
 	public String colLookup ( int keyCol, int valCol, String key ) {
 		if (keyCol >= rowCount() || valCol >= rowCount() || keyCol < 0 || valCol < 0) return "";
-		Integer row = colLookup( keyCol ).get( key );
+		int row = colIndex( keyCol, key );
 		try {
 			return data().get(row).get(valCol);
 		} catch (Exception e) {
@@ -89,12 +205,11 @@ public class LookupTable extends SimpleTable {
 	
 
 	public String lookup ( int leftCol, String rowKey, int topRow, String colKey ) {
-		Map<String,Integer> colMap = colLookup( leftCol );
-
-		Map<String,Integer> rowMap = rowLookup( topRow );
+		int row = colIndex( leftCol, rowKey );
+		int col = rowIndex( topRow, colKey );
 
 		try {
-			return data().get( colMap.get(rowKey) ).get( rowMap.get(colKey) );
+			return data().get( row ).get( col );
 		} catch (Exception e) {
 			//e.printStackTrace();
 			return "";
@@ -140,6 +255,42 @@ public class LookupTable extends SimpleTable {
 
 		System.out.println( "lookup: '"+lookup.lookup( "AA","333" )+"'" );			
 		System.out.println( "lookup: '"+lookup.lookup( "A","4444" )+"'" );			
+		
+		// the lookups follow appends and replacements
+		lookup.append( new String[]{ "new", "x", "y", "appended!" } );
+		System.out.println( "lookup after append: '"+lookup.lookup( "new","4444" )+"'" );
+		Map<String,String> rename = new HashMap<>();
+		rename.put( "new", "renamed" );
+		lookup.replace( rename, 0 );
+		System.out.println( "lookup after replace: '"+lookup.lookup( "renamed","4444" )+"', old key: '"+lookup.lookup( "new","4444" )+"'" );
+		
+		if (args.length > 0) {
+			int rows = Integer.parseInt( args[0] );
+			int appends = 1000;
+			Table big = new SimpleTable();
+			for (int i=0; i<rows; i++) big.append( new String[]{ "key"+i, String.valueOf(i), "k"+(i%1000) } );
+			Stats stats = new Stats( rows+" rows" );
+			
+			LookupTable incremental = new LookupTable( new SimpleTable().copy( big ) );
+			int found = 0;
+			for (int i=0; i<appends; i++) {
+				incremental.append( new String[]{ "added"+i, String.valueOf(i), "" } );
+				if (incremental.colLookup( 0, 1, "added"+i ).length() > 0) found++;
+			}
+			stats.display( appends+"x append+lookup, incremental: "+found+" found" );
+			
+			Table rebuilt = new SimpleTable().copy( big );
+			found = 0;
+			for (int i=0; i<appends; i++) {
+				rebuilt.append( new String[]{ "added"+i, String.valueOf(i), "" } );
+				if ((new LookupTable( rebuilt )).colLookup( 0, 1, "added"+i ).length() > 0) found++;
+			}
+			stats.display( appends+"x append+lookup, new LookupTable each time: "+found+" found" );
+			
+			incremental.maxEntries( rows+appends+1 );
+			for (int col=0; col<3; col++) incremental.colLookup( col );
+			stats.display( "maxEntries("+(rows+appends+1)+") after looking up 3 columns: cols "+incremental.lookupCols()+", "+incremental.entries()+" entries" );
+		}
 	}
 
 }
@@ -0,0 +1,325 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+public class MappedCSVFile implements TableFile {
+
+	// mappings are limited to 2 GB each, so large files are mapped in segments
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT = 1L << SEGMENT_BITS;
+
+	// sidecar index: magic, csv size, csv mtime, parser end state, row count, then one offset per row
+	private static final long MAGIC = 0x637265656b494458L;
+	private static final int HEADER = 8+8+8+4+4;
+
+	private File file;
+	private String comma;
+	private String escape;
+	private String quote;
+	private Charset charset = Charset.defaultCharset();
+
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private long size;
+
+	// row index: rows[r] is the byte offset where row r starts
+	private long[] offsets = new long[1024];
+	private int rows;
+	private int endState; // parser state at the end of the file, to continue the index after appends
+	private boolean indexReused;
+
+	// most recently decoded row
+	private int cachedRow = -1;
+	private List<String> cached;
+
+	private CSV table;
+
+
+	// constructors
+
+	public MappedCSVFile ( String path ) throws Exception {
+		this( new File(path), "," );
+	}
+
+	public MappedCSVFile ( File file ) throws Exception {
+		this( file, "," );
+	}
+
+	public MappedCSVFile ( File file, String comma ) throws Exception {
+		this( file, comma, "\\", "\"" );
+	}
+
+	public MappedCSVFile ( File file, String comma, String escape, String quote ) throws Exception {
+		this.file = file;
+		this.comma = comma;
+		this.escape = escape;
+		this.quote = quote;
+		table = new CSV( comma, escape, quote );
+		table.data( new Rows() );
+		read();
+	}
+
+
+	// lazily decoded rows
+	private class Rows extends AbstractList<List<String>> {
+
+		public List<String> get ( int row ) {
+			if (row < 0 || row >= rows) throw new IndexOutOfBoundsException( "row "+row );
+			return decode( row );
+		}
+
+		public int size () {
+			return rows;
+		}
+	}
+
+	private synchronized List<String> decode ( int row ) {
+		if (row == cachedRow) return cached;
+		long start = offsets[row];
+		long end = ( row+1 < rows ? offsets[row+1] : size );
+		final List<List<String>> parsed = new ArrayList<>(1);
+		(new CSVParser( comma, escape, quote, parsed::add )).parse( new String( bytes( start, end ), charset ) ).finish();
+		cached = ( parsed.isEmpty() ? new ArrayList<String>() : parsed.get(0) );
+		cachedRow = row;
+		return cached;
+	}
+
+	private byte[] bytes ( long start, long end ) {
+		byte[] bytes = new byte[ (int)(end-start) ];
+		int done = 0;
+		while (done < bytes.length) {
+			long position = start+done;
+			ByteBuffer segment = segments[ (int)(position >>> SEGMENT_BITS) ].duplicate();
+			segment.position( (int)(position & (SEGMENT-1)) );
+			int length = Math.min( bytes.length-done, segment.remaining() );
+			segment.get( bytes, done, length );
+			done += length;
+		}
+		return bytes;
+	}
+
+
+	// mapping and indexing
+
+	private void map () throws IOException {
+		size = file.length();
+		int count = (int)((size + SEGMENT - 1) >>> SEGMENT_BITS);
+		MappedByteBuffer[] mapped = Arrays.copyOf( segments, count );
+		try (FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ )) {
+			// segments that were complete before stay as they are
+			for (int s=0; s<count; s++) {
+				long start = (long)s << SEGMENT_BITS;
+				long length = Math.min( SEGMENT, size-start );
+				if (mapped[s] == null || mapped[s].capacity() != length) {
+					mapped[s] = channel.map( FileChannel.MapMode.READ_ONLY, start, length );
+				}
+			}
+		}
+		segments = mapped;
+	}
+
+	private void addOffset ( long offset ) {
+		if (rows == offsets.length) offsets = Arrays.copyOf( offsets, rows*2 );
+		offsets[rows++] = offset;
+	}
+
+	// one pass over [from,size), continuing from the parser state at 'from'
+	private void index ( long from ) {
+		int commaChar = CSVParser.delimiter( comma );
+		int escapeChar = CSVParser.delimiter( escape );
+		int quoteChar = CSVParser.delimiter( quote );
+		int state = endState;
+		if (from == 0) {
+			state = CSVParser.LINE_START_STATE;
+			from = firstRow();
+		}
+		// still no first row, e.g. a file that was just "" before this append
+		if (rows == 0) {
+			long first = firstRow();
+			if (first < size) addOffset( first );
+		}
+		for (int s=(int)(from >>> SEGMENT_BITS); s<segments.length; s++) {
+			ByteBuffer segment = segments[s];
+			long base = (long)s << SEGMENT_BITS;
+			int limit = segment.capacity();
+			for (int i=(int)Math.max( 0, from-base ); i<limit; i++) {
+				int c = segment.get(i) & 0xFF;
+				int next = CSVParser.next( state, c, commaChar, escapeChar, quoteChar );
+				// blank lines between rows are skipped, so a row starts at the first char after them
+				if (state == CSVParser.LINE_END_STATE && next != CSVParser.LINE_END_STATE) addOffset( base+i );
+				state = next;
+			}
+		}
+		endState = state;
+		// an unterminated first row of nothing but quotes ("" at the end of the file) gives the parser no cells
+		if (rows == 1 && size-offsets[0] <= 2 && quotesOnly( offsets[0], size, quoteChar )) rows = 0;
+	}
+
+	// a UTF-8 Byte Order Mark is not part of the first row
+	private long firstRow () {
+		if (size >= 3) {
+			byte[] head = bytes( 0, 3 );
+			if ((head[0]&0xFF) == 0xEF && (head[1]&0xFF) == 0xBB && (head[2]&0xFF) == 0xBF) return 3;
+		}
+		return 0;
+	}
+
+	private boolean quotesOnly ( long start, long end, int quoteChar ) {
+		for (byte b : bytes( start, end )) {
+			if ((b&0xFF) != quoteChar) return false;
+		}
+		return true;
+	}
+
+	private File sidecar () {
+		return new File( file.getPath()+".idx" );
+	}
+
+	private boolean loadIndex () {
+		File idx = sidecar();
+		if (!idx.exists()) return false;
+		try (FileChannel channel = FileChannel.open( idx.toPath(), StandardOpenOption.READ )) {
+			ByteBuffer header = ByteBuffer.allocate( HEADER );
+			while (header.hasRemaining() && channel.read( header ) > 0);
+			header.flip();
+			if (header.remaining() < HEADER || header.getLong() != MAGIC) return false;
+			if (header.getLong() != size || header.getLong() != file.lastModified()) return false;
+			int state = header.getInt();
+			int count = header.getInt();
+			if (channel.size() < HEADER + 8L*count) return false;
+			long[] loaded = new long[ Math.max( 1024, count ) ];
+			channel.map( FileChannel.MapMode.READ_ONLY, HEADER, 8L*count ).asLongBuffer().get( loaded, 0, count );
+			offsets = loaded;
+			rows = count;
+			endState = state;
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// rewrite the header and the offsets from 'fromRow' on
+	private void saveIndex ( int fromRow ) throws IOException {
+		try (FileChannel channel = FileChannel.open( sidecar().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE )) {
+			ByteBuffer header = ByteBuffer.allocate( HEADER );
+			header.putLong( MAGIC ).putLong( size ).putLong( file.lastModified() ).putInt( endState ).putInt( rows ).flip();
+			channel.write( header, 0 );
+			ByteBuffer body = ByteBuffer.allocate( 8*(rows-fromRow) );
+			body.asLongBuffer().put( offsets, fromRow, rows-fromRow );
+			channel.write( body, HEADER + 8L*fromRow );
+			channel.truncate( HEADER + 8L*rows );
+		}
+	}
+
+	public boolean indexReused () {
+		return indexReused;
+	}
+
+
+	// TableFile interface
+
+	public TableFile create ( File file ) throws Exception {
+		return new MappedCSVFile( file, comma, escape, quote );
+	}
+
+	public File file () {
+		return file;
+	}
+
+	public Table table () {
+		return table;
+	}
+
+	public synchronized TableFile clear () throws Exception {
+		return write( null );
+	}
+
+	public synchronized TableFile read () throws Exception {
+		if (!file.exists()) file.createNewFile();
+		segments = new MappedByteBuffer[0];
+		map();
+		rows = 0;
+		endState = CSVParser.LINE_START_STATE;
+		cachedRow = -1;
+		indexReused = loadIndex();
+		if (!indexReused) {
+			index( 0 );
+			saveIndex( 0 );
+		}
+		return this;
+	}
+
+	public synchronized TableFile append ( Table table ) throws Exception {
+		if (table == null) return this;
+		byte[] serial = (new CSV( table, comma, escape, quote )).serial().getBytes( charset );
+		try (FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.APPEND )) {
+			ByteBuffer buffer = ByteBuffer.wrap( serial );
+			while (buffer.hasRemaining()) channel.write( buffer );
+		}
+		long oldSize = size;
+		int oldRows = rows;
+		map();
+		index( oldSize );
+		cachedRow = -1;
+		saveIndex( oldRows );
+		return this;
+	}
+
+	public synchronized TableFile write ( Table table ) throws Exception {
+		// copy our own rows out before the file changes underneath them
+		if (table == this.table) table = new CSV( (new SimpleTable()).copy( table ), comma, escape, quote );
+		// replace the file rather than truncate it, so that no mapping outlives its bytes
+		File temp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+		byte[] serial = ( table == null ? new byte[0] : (new CSV( table, comma, escape, quote )).serial().getBytes( charset ) );
+		Files.write( temp.toPath(), serial );
+		Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		sidecar().delete();
+		return read();
+	}
+
+	public TableFile write () throws Exception {
+		return this; // rows are always in the file already
+	}
+
+	public String toString () {
+		return table.toString();
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) throws Exception {
+		File file = new File( args[0] );
+		(new CSVFile( file, false )).write( CSV.test() );
+
+		MappedCSVFile mapped = new MappedCSVFile( file );
+		System.out.println( "index reused: "+mapped.indexReused()+", rows: "+mapped.table().rowCount() );
+		System.out.println( "same rows as CSVFile: "+mapped.table().data().equals( (new CSVFile( file )).table().data() ) );
+		System.out.println( "item(2,0): "+mapped.table().item(2,0) );
+
+		mapped = new MappedCSVFile( file );
+		System.out.println( "index reused: "+mapped.indexReused() );
+
+		mapped.append( new CSV( "x,\"y\nz\"\n1,2\n" ) );
+		System.out.println( "after append:\n"+mapped );
+		System.out.println( "reopened after append, index reused: "+(new MappedCSVFile( file )).indexReused() );
+		System.out.println( "same rows as CSVFile: "+mapped.table().data().equals( (new CSVFile( file )).table().data() ) );
+
+		if (args.length > 1) {
+			File big = new File( args[1] );
+			(new File( big.getPath()+".idx" )).delete();
+			Stats stats = new Stats( big.getName() );
+			MappedCSVFile first = new MappedCSVFile( big );
+			stats.display( "first open (newline scan), "+first.table().rowCount()+" rows" );
+			MappedCSVFile second = new MappedCSVFile( big );
+			stats.display( "second open, index reused: "+second.indexReused() );
+			(new CSVFile( big )).table().rowCount();
+			stats.display( "CSVFile full parse" );
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package creek;
+
+import java.util.*;
+
+// inverted index from every n-char substring of a column's items to the rows holding it
+public class NGramIndex {
+
+	// ascending row ids, delta-encoded as varints
+	private static class Posting {
+		byte[] bytes = new byte[4];
+		int length;
+		int count;
+		int last = -1;
+
+		void add ( int id ) {
+			if (id == last) return; // a gram that occurs twice in one item
+			int delta = id - last;
+			last = id;
+			count++;
+			if (length+5 > bytes.length) bytes = Arrays.copyOf( bytes, bytes.length*2 );
+			while (delta >= 0x80) {
+				bytes[length++] = (byte)(delta | 0x80);
+				delta >>>= 7;
+			}
+			bytes[length++] = (byte)delta;
+		}
+
+		int[] decode () {
+			int[] ids = new int[count];
+			int id = -1;
+			int position = 0;
+			for (int i=0; i<count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = bytes[position++];
+					delta |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				id += delta;
+				ids[i] = id;
+			}
+			return ids;
+		}
+	}
+
+	private int n;
+	private Map<String,Posting> postings = new HashMap<>();
+	private int rows;
+
+
+	public NGramIndex ( int n ) {
+		this.n = Math.max( 1, n );
+	}
+
+	public NGramIndex () {
+		this( 3 );
+	}
+
+	public NGramIndex ( Table table, int col, int n ) {
+		this( n );
+		List<List<String>> data = table.data();
+		for (int id=0; id<data.size(); id++) {
+			List<String> row = data.get(id);
+			add( id, ( col < row.size() ? row.get(col) : null ) );
+		}
+	}
+
+
+	// ids must be added in ascending order
+	public synchronized NGramIndex add ( int id, String item ) {
+		rows = Math.max( rows, id+1 );
+		if (item == null) return this;
+		for (String gram : StringFunctions.ngrams( item, n )) {
+			Posting posting = postings.get( gram );
+			if (posting == null) postings.put( gram, posting = new Posting() );
+			posting.add( id );
+		}
+		return this;
+	}
+
+	// ids of the rows whose item may contain partial (every gram of it matches), ascending;
+	// null if partial is shorter than n, which the index can't answer
+	public synchronized IntList candidates ( String partial ) {
+		if (partial.length() < n) return null;
+		List<Posting> lists = new ArrayList<>();
+		for (String gram : StringFunctions.ngrams( partial, n )) {
+			Posting posting = postings.get( gram );
+			if (posting == null) return new IntList();
+			lists.add( posting );
+		}
+		// intersect the shortest lists first
+		lists.sort( (a, b) -> Integer.compare( a.count, b.count ) );
+		int[] ids = lists.get(0).decode();
+		int count = ids.length;
+		for (int l=1; l<lists.size() && count>0; l++) {
+			int[] other = lists.get(l).decode();
+			int kept = 0;
+			int j = 0;
+			for (int i=0; i<count; i++) {
+				while (j < other.length && other[j] < ids[i]) j++;
+				if (j == other.length) break;
+				if (other[j] == ids[i]) ids[kept++] = ids[i];
+			}
+			count = kept;
+		}
+		return new IntList( Arrays.copyOf( ids, count ) );
+	}
+
+	// ids of the rows whose item contains partial: candidates verified against the rows
+	public IntList search ( List<List<String>> data, int col, String partial ) {
+		IntList candidates = candidates( partial );
+		IntList ids = new IntList();
+		if (candidates == null) {
+			// too short for the index: scan
+			for (int id=0; id<data.size(); id++) {
+				List<String> row = data.get(id);
+				if (col < row.size() && row.get(col) != null && row.get(col).contains( partial )) ids.add( id );
+			}
+			return ids;
+		}
+		for (int i=0; i<candidates.size(); i++) {
+			List<String> row = data.get( candidates.get(i) );
+			if (col < row.size() && row.get(col) != null && row.get(col).contains( partial )) ids.add( candidates.get(i) );
+		}
+		return ids;
+	}
+
+	public int n () {
+		return n;
+	}
+
+	public synchronized int grams () {
+		return postings.size();
+	}
+
+	// bytes held by the posting lists
+	public synchronized long postingBytes () {
+		long bytes = 0;
+		for (Posting posting : postings.values()) bytes += posting.length;
+		return bytes;
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		int count = ( args.length > 0 ? Integer.parseInt( args[0] ) : 1000000 );
+		Random random = new Random( 1 );
+		String[] words = { "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliett" };
+		Table table = new SimpleTable();
+		for (int i=0; i<count; i++) {
+			table.append( new String[]{ words[ random.nextInt(10) ]+"-"+words[ random.nextInt(10) ]+"-"+random.nextInt(100000), String.valueOf(i) } );
+		}
+
+		Stats stats = new Stats( count+" rows" );
+		NGramIndex index = new NGramIndex( table, 0, 3 );
+		stats.display( "trigram index built: "+index.grams()+" grams, "+index.postingBytes()/1024+" kiB of postings" );
+
+		for (String partial : new String[]{ "lta-ech", "otel-india-42", "xyz", "ch" }) {
+			stats.delta();
+			IntList found = index.search( table.data(), 0, partial );
+			String indexed = stats.deltaTime();
+			int scanned = 0;
+			for (List<String> row : table.data()) if (row.get(0).contains( partial )) scanned++;
+			System.out.println( "'"+partial+"': "+found.size()+" rows in "+indexed+" with the index, "+scanned+" rows in "+stats.deltaTime()+" scanning" );
+		}
+	}
+
+}
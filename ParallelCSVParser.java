@@ -0,0 +1,153 @@
+package creek;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ParallelCSVParser {
+
+	// after a newline char the parser can only be in one of these states
+	private static final int[] AFTER_NEWLINE = new int[]{
+		CSVParser.LINE_END_STATE,   // the newline ended a record (or was a blank line)
+		CSVParser.QUOTE_DATA_STATE, // the newline was inside a quoted item
+		CSVParser.DATA_STATE        // the newline was escaped
+	};
+
+	private static final int MIN_CHUNK = 1 << 16;
+
+	private String comma;
+	private String escape;
+	private String quote;
+	private int threads;
+
+
+	public ParallelCSVParser ( String comma, String escape, String quote, int threads ) {
+		this.comma = comma;
+		this.escape = escape;
+		this.quote = quote;
+		this.threads = Math.max( 1, threads );
+	}
+
+	public ParallelCSVParser ( int threads ) {
+		this( ",", "\\", "\"", threads );
+	}
+
+
+	private int scan ( char[] input, int from, int to, int state ) {
+		int commaChar = CSVParser.delimiter( comma );
+		int escapeChar = CSVParser.delimiter( escape );
+		int quoteChar = CSVParser.delimiter( quote );
+		for (int i=from; i<to; i++) state = CSVParser.next( state, input[i], commaChar, escapeChar, quoteChar );
+		return state;
+	}
+
+	// candidate split points, each just after a newline char
+	private int[] splits ( char[] input, int length, int chunks ) {
+		List<Integer> points = new ArrayList<>();
+		points.add( 0 );
+		for (int k=1; k<chunks; k++) {
+			int p = Math.max( (int)((long)length*k/chunks), points.get( points.size()-1 )+1 );
+			while (p < length && input[p-1] != '\n' && input[p-1] != '\r') p++;
+			if (p < length) points.add( p );
+		}
+		points.add( length );
+		int[] splits = new int[ points.size() ];
+		for (int i=0; i<splits.length; i++) splits[i] = points.get(i);
+		return splits;
+	}
+
+	public List<List<String>> parse ( char[] input, int length ) throws Exception {
+		int chunks = ( threads == 1 ? 1 : Math.max( 1, Math.min( threads*4, length/MIN_CHUNK ) ) );
+		final int[] splits = splits( input, length, chunks );
+		final int count = splits.length-1;
+		ForkJoinPool pool = new ForkJoinPool( threads );
+		try {
+			// 1. speculative pass: the end state of every chunk for each possible start state
+			List<Callable<int[]>> scans = new ArrayList<>();
+			for (int k=0; k<count; k++) {
+				final int chunk = k;
+				scans.add( () -> {
+					if (chunk == 0) return new int[]{ scan( input, splits[0], splits[1], CSVParser.LINE_START_STATE ) };
+					int[] ends = new int[ AFTER_NEWLINE.length ];
+					for (int h=0; h<ends.length; h++) ends[h] = scan( input, splits[chunk], splits[chunk+1], AFTER_NEWLINE[h] );
+					return ends;
+				} );
+			}
+			List<Future<int[]>> ends = pool.invokeAll( scans );
+
+			// 2. resolve the real start state of each chunk in order; a chunk that
+			//    doesn't start on a record boundary is folded into the one before it
+			List<Integer> starts = new ArrayList<>();
+			starts.add( 0 );
+			int state = ends.get(0).get()[0];
+			for (int k=1; k<count; k++) {
+				if (state == CSVParser.LINE_END_STATE) starts.add( k );
+				int h = 0;
+				while (AFTER_NEWLINE[h] != state) h++;
+				state = ends.get(k).get()[h];
+			}
+
+			// 3. parse the record-aligned chunks in parallel and stitch them in order
+			List<Callable<List<List<String>>>> parses = new ArrayList<>();
+			for (int i=0; i<starts.size(); i++) {
+				final int from = splits[ starts.get(i) ];
+				final int to = ( i+1 < starts.size() ? splits[ starts.get(i+1) ] : length );
+				final int startState = ( from == 0 ? CSVParser.LINE_START_STATE : CSVParser.LINE_END_STATE );
+				parses.add( () -> {
+					List<List<String>> rows = new ArrayList<>();
+					(new CSVParser( comma, escape, quote, rows::add )).state( startState ).parse( input, from, to-from ).finish();
+					return rows;
+				} );
+			}
+			List<List<String>> rows = new ArrayList<>();
+			for (Future<List<List<String>>> part : pool.invokeAll( parses )) rows.addAll( part.get() );
+			return rows;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public List<List<String>> parse ( String input ) throws Exception {
+		return parse( input.toCharArray(), input.length() );
+	}
+
+
+	// testing
+
+	// quoted items with newlines so that some splits land inside a record
+	private static String sample ( int rows ) {
+		StringBuilder csv = new StringBuilder();
+		Random random = new Random( 1 );
+		for (int i=0; i<rows; i++) {
+			csv
+				.append( "2024-01-01_000000_" ).append( i%1000 ).append( ',' )
+				.append( "host-" ).append( random.nextInt(100) ).append( ',' )
+				.append( random.nextDouble() ).append( ',' )
+				.append( "\"quoted,\nwith newline\r\n\"" ).append( ',' )
+				.append( "\"say \"\"hi\"\"\"" ).append( ',' )
+				.append( "escaped\\\nnewline" ).append( ",,\r\n" );
+		}
+		return csv.toString();
+	}
+
+	public static void main ( String[] args ) throws Exception {
+		String csv = sample( args.length > 0 ? Integer.parseInt( args[0] ) : 200000 );
+		char[] input = csv.toCharArray();
+		List<List<String>> expected = (new CSV( csv )).data();
+		System.out.println( "input: "+input.length+" chars, "+expected.size()+" rows" );
+		for (int round=0; round<2; round++) {
+			for (int threads : new int[]{ 1, 2, 4, 8 }) {
+				System.gc();
+				long t0 = Stats.time();
+				List<List<String>> rows = (new ParallelCSVParser( threads )).parse( input, input.length );
+				long elapsed = Stats.time()-t0;
+				System.out.println(
+					threads+" thread(s): "+Stats.ms( elapsed )+", "+
+					String.format( "%.1f", input.length/(1024.0*1024.0)/(elapsed/1e9) )+" MB/s, "+
+					( rows.equals( expected ) ? "same rows" : "DIFFERENT ROWS" )
+				);
+			}
+		}
+		System.out.println( "available processors: "+Runtime.getRuntime().availableProcessors() );
+	}
+
+}
@@ -1,6 +1,7 @@
 package creek;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.*;
 import java.util.function.Function;
 
@@ -8,15 +9,11 @@ public class Regex {
 
 	// Pattern caching
 
-	public static Map<String,Pattern> patternCache = null;
+	// concurrent, so that patterns can be looked up from worker threads
+	public static Map<String,Pattern> patternCache = new ConcurrentHashMap<>();
 	
 	public static Pattern pattern ( String regex ) {
-		if (patternCache==null) patternCache = new HashMap<>();
-		if (! patternCache.containsKey(regex)) {
-			Pattern pattern = Pattern.compile( regex );
-			patternCache.put(regex, pattern);
-		}
-		return patternCache.get( regex );
+		return patternCache.computeIfAbsent( regex, Pattern::compile );
 	}
 	
 	public static Matcher matcher ( String input, String regex ) {
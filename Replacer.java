@@ -0,0 +1,211 @@
+package creek;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+// bulk replace: whole-cell replacements looked up once per cell in a compiled map, then substring and
+// regex replacements, all in one pass over the cells; row stripes run in parallel
+public class Replacer {
+
+	// stripes under this many rows aren't worth a thread
+	private static final int MIN_STRIPE_ROWS = 10000;
+
+	// whole-cell replacements: key -> index of its new value
+	private StringIntMap keys = new StringIntMap();
+	private List<String> values = new ArrayList<>();
+
+	// applied in order after the whole-cell replacement
+	private List<String> substrings = new ArrayList<>(); // old, new, old, new...
+	private List<Pattern> patterns = new ArrayList<>();
+	private List<String> patternReplacements = new ArrayList<>();
+
+	private int threads = 1;
+
+
+	public Replacer () {
+	}
+
+	public Replacer ( Map<String,String> replacements ) {
+		cells( replacements );
+	}
+
+
+	// rules
+
+	// cells equal to a key get its value (null keys never match)
+	public Replacer cells ( Map<String,String> replacements ) {
+		for (Map.Entry<String,String> entry : replacements.entrySet()) {
+			if (entry.getKey() == null) continue;
+			int index = keys.getInt( entry.getKey() );
+			if (index >= 0) {
+				values.set( index, entry.getValue() );
+			} else {
+				keys.putInt( entry.getKey(), values.size() );
+				values.add( entry.getValue() );
+			}
+		}
+		return this;
+	}
+
+	// every occurrence of a literal substring
+	public Replacer substring ( String subOld, String subNew ) {
+		if (subOld == null || subOld.isEmpty()) return this;
+		substrings.add( subOld );
+		substrings.add( subNew == null ? "" : subNew );
+		return this;
+	}
+
+	// every match of regex (compiled once, through Regex); the replacement may use $1 etc.
+	public Replacer regex ( String regex, String replacement ) {
+		patterns.add( Regex.pattern( regex ) );
+		patternReplacements.add( replacement == null ? "" : replacement );
+		return this;
+	}
+
+	public Replacer threads ( int count ) {
+		threads = Math.max( 1, count );
+		return this;
+	}
+
+
+	// one cell
+	public String apply ( String item ) {
+		if (item == null) return null;
+		int index = keys.getInt( item );
+		if (index >= 0) {
+			item = values.get( index );
+			if (item == null) return null;
+		}
+		for (int i=0; i<substrings.size(); i+=2) {
+			if (item.indexOf( substrings.get(i) ) > -1) item = item.replace( substrings.get(i), substrings.get(i+1) );
+		}
+		for (int i=0; i<patterns.size(); i++) {
+			Matcher matcher = patterns.get(i).matcher( item );
+			if (matcher.find()) item = matcher.replaceAll( patternReplacements.get(i) );
+		}
+		return item;
+	}
+
+
+	// tables
+
+	public int apply ( Table table ) {
+		return apply( table, 0, 0, -1, -1 );
+	}
+
+	// cells in rows [row0,row1) and columns [col0,col1) (-1: to the end), under the table's write lock;
+	// returns how many cells changed
+	public int apply ( Table table, int row0, int col0, int row1, int col1 ) {
+		table.obtainWriteLock();
+		try {
+			return unlockedApply( table.data(), row0, col0, row1, col1 );
+		} finally {
+			table.releaseWriteLock();
+		}
+	}
+
+	// the caller holds the table's write lock; the stripes are disjoint, so the workers need no other
+	int unlockedApply ( List<List<String>> data, int row0, int col0, int row1, int col1 ) {
+		if (data == null) return 0;
+		Views.own( data ); // a view gets its own rows before they are written
+		if (row0<0) row0 = 0;
+		if (col0<0) col0 = 0;
+		if (row1<0 || row1>data.size()) row1 = data.size();
+		int rows = row1-row0;
+		int stripes = ( threads > 1 && rows >= MIN_STRIPE_ROWS*2 ? Math.min( threads*4, rows/MIN_STRIPE_ROWS ) : 1 );
+		if (stripes <= 1) return stripe( data, row0, row1, col0, col1 );
+		ForkJoinPool pool = new ForkJoinPool( threads );
+		try {
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for (int k=0; k<stripes; k++) {
+				final int from = row0+(int)( (long)rows*k/stripes );
+				final int to = row0+(int)( (long)rows*(k+1)/stripes );
+				final int firstCol = col0;
+				tasks.add( () -> stripe( data, from, to, firstCol, col1 ) );
+			}
+			int changed = 0;
+			for (Future<Integer> task : pool.invokeAll( tasks )) changed += task.get();
+			return changed;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch (ExecutionException e) {
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private int stripe ( List<List<String>> data, int from, int to, int col0, int col1 ) {
+		int changed = 0;
+		for (int row=from; row<to; row++) {
+			List<String> line = data.get(row);
+			if (line == null) continue;
+			int colCount = line.size();
+			if (col0>=colCount) continue;
+			int endCol = ( col1<0 || col1>colCount ? colCount : col1 );
+			for (int col=col0; col<endCol; col++) {
+				String item = line.get(col);
+				String replaced = apply( item );
+				if (! Objects.equals( item, replaced )) {
+					line.set( col, replaced );
+					changed++;
+				}
+			}
+		}
+		return changed;
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		Table table = new SimpleTable(
+			"a  b   c\n"+
+			"1  2   3\n"+
+			"x  a   foo-bar\n"
+		);
+		Map<String,String> map = new HashMap<>();
+		map.put( "a", "A" );
+		map.put( "3", "three" );
+		Replacer replacer = (new Replacer( map )).substring( "-", "_" ).regex( "([0-9])", "<$1>" );
+		int changed = replacer.apply( table );
+		System.out.println( changed+" cells changed:\n"+table );
+
+		int count = ( args.length > 0 ? Integer.parseInt( args[0] ) : 1000000 );
+		Map<String,String> codes = new HashMap<>();
+		for (int i=0; i<1000; i+=2) codes.put( "code"+i, "CODE"+i );
+		Random random = new Random( 1 );
+		List<List<String>> rows = new ArrayList<>();
+		for (int i=0; i<count; i++) rows.add( new ArrayList<>( Arrays.asList( "code"+random.nextInt(1000), "code"+random.nextInt(1000), "x"+i ) ) );
+		Stats stats = new Stats( count+" rows" );
+		for (int round=0; round<2; round++) {
+			Table before = new SimpleTable();
+			for (List<String> row : rows) before.append( new ArrayList<>( row ) );
+			stats.delta();
+			// the loop replace() used before: containsKey + get per cell
+			before.obtainWriteLock();
+			int loopChanged = 0;
+			for (List<String> line : before.data()) {
+				for (int col=0; col<line.size(); col++) {
+					String item = line.get(col);
+					if (item!=null && codes.containsKey(item)) {
+						line.set(col, codes.get(item));
+						loopChanged++;
+					}
+				}
+			}
+			before.releaseWriteLock();
+			stats.display( "containsKey + get loop: "+loopChanged+" cells" );
+			for (int threads : new int[]{ 1, 4 }) {
+				Table after = new SimpleTable();
+				for (List<String> row : rows) after.append( new ArrayList<>( row ) );
+				stats.delta();
+				int replacerChanged = (new Replacer( codes )).threads( threads ).apply( after );
+				stats.display( "Replacer, "+threads+" thread(s): "+replacerChanged+" cells, same result: "+after.data().equals( before.data() ) );
+			}
+		}
+	}
+
+}
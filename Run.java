@@ -0,0 +1,122 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+
+// a spill file: rows written as length-prefixed records, each with a long tag (e.g. the row's
+// position in the input), and read back exactly as they went out, null cells and all
+class Run implements Closeable {
+
+	// a cell goes out in pieces short enough for writeUTF()
+	private static final int PIECE = 16384;
+
+	private final File file;
+	private DataOutputStream out;
+	private long rows;
+
+
+	Run ( String prefix, File directory ) throws IOException {
+		file = File.createTempFile( prefix, ".run", directory );
+		out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 65536 ) );
+	}
+
+
+	void write ( long tag, List<String> row ) throws IOException {
+		out.writeLong( tag );
+		if (row == null) {
+			out.writeInt( -1 );
+		} else {
+			int size = row.size();
+			out.writeInt( size );
+			for (int i=0; i<size; i++) write( row.get(i) );
+		}
+		rows++;
+	}
+
+	private void write ( String item ) throws IOException {
+		if (item == null) {
+			out.writeInt( -1 );
+			return;
+		}
+		int length = item.length();
+		out.writeInt( length );
+		for (int from=0; from<length; from+=PIECE) out.writeUTF( item.substring( from, Math.min( length, from+PIECE ) ) );
+	}
+
+	long rows () {
+		return rows;
+	}
+
+	// done writing
+	public void close () throws IOException {
+		if (out != null) out.close();
+		out = null;
+	}
+
+	void delete () {
+		try {
+			close();
+		} catch (IOException e) {
+			// the file goes anyway
+		}
+		file.delete();
+	}
+
+
+	// reading, once the run is closed
+
+	Cursor cursor () throws IOException {
+		close();
+		return new Cursor();
+	}
+
+	class Cursor implements Closeable {
+
+		private final DataInputStream in;
+		private long read;
+		private long tag;
+		private List<String> row;
+
+		private Cursor () throws IOException {
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 65536 ) );
+		}
+
+		// false at the end of the run
+		boolean next () throws IOException {
+			if (read == rows) return false;
+			tag = in.readLong();
+			int size = in.readInt();
+			if (size < 0) {
+				row = null;
+			} else {
+				row = new ArrayList<>( size );
+				for (int i=0; i<size; i++) row.add( item() );
+			}
+			read++;
+			return true;
+		}
+
+		private String item () throws IOException {
+			int length = in.readInt();
+			if (length < 0) return null;
+			if (length == 0) return "";
+			if (length <= PIECE) return in.readUTF();
+			StringBuilder item = new StringBuilder( length );
+			while (item.length() < length) item.append( in.readUTF() );
+			return item.toString();
+		}
+
+		long tag () {
+			return tag;
+		}
+
+		List<String> row () {
+			return row;
+		}
+
+		public void close () throws IOException {
+			in.close();
+		}
+	}
+
+}
@@ -1,5 +1,6 @@
 package creek;
 
+import java.io.*;
 import java.util.*;
 
 public class SimpleTable extends AbstractTable {
@@ -40,34 +41,101 @@ public class SimpleTable extends AbstractTable {
 	}
 	
 	public String serial () {
-		obtainWriteLock();
-		// find column widths
-		Map<Integer,Integer> colWidth = new HashMap<>();
-		for (List<String> row : data()) {
-			int itemCount = row.size();
-			for (int col=0; col<itemCount; col++) {
-				String item = row.get(col);
-				if (item == null) continue;
-				if (colWidth.get(col) == null || item.length() > colWidth.get(col).intValue()) colWidth.put( col, item.length() );
+		StringBuilder serial = new StringBuilder();
+		try {
+			serial( new Builder( serial ), -1 );
+		} catch (IOException e) {
+			throw new UncheckedIOException( e ); // a StringBuilder doesn't throw
+		}
+		return serial.toString();
+	}
+	
+	// an unsynchronized StringWriter
+	private static class Builder extends Writer {
+		private final StringBuilder builder;
+		
+		Builder ( StringBuilder builder ) {
+			this.builder = builder;
+		}
+		
+		public void write ( int c ) {
+			builder.append( (char)c );
+		}
+		
+		public void write ( char[] chars, int offset, int length ) {
+			builder.append( chars, offset, length );
+		}
+		
+		public void write ( String string ) {
+			builder.append( string );
+		}
+		
+		public void write ( String string, int offset, int length ) {
+			builder.append( string, offset, offset+length );
+		}
+		
+		public void flush () {}
+		
+		public void close () {}
+	}
+	
+	// streamed, e.g. a large table to stdout without building one huge String
+	public void serial ( OutputStream out ) throws IOException {
+		Writer writer = new BufferedWriter( new OutputStreamWriter( out ), 65536 );
+		serial( writer, -1 );
+		writer.flush();
+	}
+	
+	public void serial ( Writer out ) throws IOException {
+		serial( out, -1 );
+	}
+	
+	// sampleRows > 0: column widths from the first sampleRows rows only; longer items still get a space
+	public void serial ( Writer out, int sampleRows ) throws IOException {
+		lock().readLock();
+		try {
+			List<List<String>> rows = data();
+			int[] widths = widths( rows, ( sampleRows > 0 ? Math.min( sampleRows, rows.size() ) : rows.size() ) );
+			for (List<String> row : rows) {
+				int itemCount = row.size();
+				for (int col=0; col<itemCount; col++) {
+					String item = row.get(col);
+					if (item == null) item = "";
+					out.write( item );
+					if (col<itemCount-1) {
+						int width = ( col < widths.length ? widths[col] : 0 );
+						pad( out, Math.max( width+4-item.length(), 1 ) );
+					}
+				}
+				out.write( '\n' );
 			}
+		} finally {
+			lock().readUnlock();
 		}
-		// build output string
-		StringBuilder serial = new StringBuilder();
-		for (List<String> row : data()) {
+	}
+	
+	private static int[] widths ( List<List<String>> rows, int sampleRows ) {
+		int[] widths = new int[8];
+		for (int r=0; r<sampleRows; r++) {
+			List<String> row = rows.get(r);
 			int itemCount = row.size();
+			if (itemCount > widths.length) widths = Arrays.copyOf( widths, Math.max( itemCount, widths.length*2 ) );
 			for (int col=0; col<itemCount; col++) {
 				String item = row.get(col);
-				if (item == null) item = "";
-				serial.append( item );
-				if (col<itemCount-1) {
-					int width = ( colWidth.get(col)!=null ? colWidth.get(col) : 0 );
-					for (int spaces=item.length(); spaces<width+4; spaces++) serial.append( " " );
-				}
+				if (item != null && item.length() > widths[col]) widths[col] = item.length();
 			}
-			serial.append( "\n" );
 		}
-		releaseWriteLock();
-		return serial.toString();
+		return widths;
+	}
+	
+	private static final char[] SPACES = new char[256];
+	static {
+		Arrays.fill( SPACES, ' ' );
+	}
+	
+	private static void pad ( Writer out, int spaces ) throws IOException {
+		for (; spaces > SPACES.length; spaces -= SPACES.length) out.write( SPACES, 0, SPACES.length );
+		out.write( SPACES, 0, spaces );
 	}
 	
 	
@@ -218,6 +286,30 @@ public class SimpleTable extends AbstractTable {
 		System.out.println( Arrays.asList(table2.col( 1 )) );
 		System.out.println( Arrays.asList(table2.col( 2 )) );
 		System.out.println( Arrays.asList(table2.col( 4 )) );
+		
+		if (args.length > 0) {
+			int count = Integer.parseInt( args[0] );
+			SimpleTable big = new SimpleTable();
+			for (int i=0; i<count; i++) big.append( new String[]{ "row"+i, String.valueOf( i%977 ), "some text in the third column", "x" } );
+			OutputStream discard = new OutputStream() {
+				public void write ( int b ) {}
+				public void write ( byte[] b, int off, int len ) {}
+			};
+			Stats stats = new Stats( count+" rows" );
+			for (int round=0; round<2; round++) {
+				stats.delta();
+				int length = big.serial().length();
+				stats.display( "serial(): a String of "+length+" chars" );
+				try {
+					big.serial( discard );
+					stats.display( "serial(OutputStream)" );
+					big.serial( new BufferedWriter( new OutputStreamWriter( discard ), 65536 ), 1000 );
+					stats.display( "serial(Writer, 1000 sampled rows)" );
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 
 }
@@ -0,0 +1,400 @@
+package creek;
+
+import java.io.*;
+import java.util.*;
+
+public class SortedTable extends SimpleTable implements SortTable {
+
+	// runs merged at once; more are merged in passes
+	private static final int MAX_FAN_IN = 64;
+
+	private int sortedCol = -1; // column the rows are in ascending order of, -1: none
+
+	// read-only view of rows in permutation order; rows aren't copied
+	private static class Permutation extends AbstractList<List<String>> {
+
+		private final List<List<String>> rows;
+		private final int[] order;
+		private final int from;
+		private final int size;
+
+		Permutation ( List<List<String>> rows, int[] order, int from, int to ) {
+			this.rows = rows;
+			this.order = order;
+			this.from = from;
+			this.size = to-from;
+		}
+
+		public List<String> get ( int row ) {
+			if (row < 0 || row >= size) throw new IndexOutOfBoundsException( "row "+row );
+			return rows.get( order[from+row] );
+		}
+
+		public int size () {
+			return size;
+		}
+
+		Permutation window ( int start, int end ) {
+			return new Permutation( rows, order, from+start, from+end );
+		}
+	}
+
+
+	// constructors
+
+	public SortedTable () {
+		super();
+	}
+
+	public SortedTable ( Table table ) {
+		super( table );
+	}
+
+	public SortedTable ( String serial ) {
+		super( serial );
+	}
+
+	public Table create () {
+		return new SortedTable();
+	}
+
+
+	// in-memory sort: a stable merge sort of row indexes, keyed by the column
+
+	private static String key ( List<String> row, int column ) {
+		return ( column >= 0 && column < row.size() ? row.get( column ) : null );
+	}
+
+	// nulls first
+	private static int compare ( String a, String b ) {
+		if (a == null) return ( b == null ? 0 : -1 );
+		if (b == null) return 1;
+		return a.compareTo( b );
+	}
+
+	// indexes of rows in sorted order; equal keys keep their order
+	static int[] order ( List<List<String>> rows, int column, boolean reverse ) {
+		int n = rows.size();
+		String[] keys = new String[n];
+		for (int i=0; i<n; i++) keys[i] = key( rows.get(i), column );
+		int sign = ( reverse ? -1 : 1 );
+		int[] order = new int[n];
+		for (int i=0; i<n; i++) order[i] = i;
+		// insertion sort short runs, then merge them bottom-up
+		int run = 16;
+		for (int start=0; start<n; start+=run) {
+			int end = Math.min( n, start+run );
+			for (int i=start+1; i<end; i++) {
+				int index = order[i];
+				int j = i-1;
+				while (j >= start && sign*compare( keys[ order[j] ], keys[index] ) > 0) {
+					order[j+1] = order[j];
+					j--;
+				}
+				order[j+1] = index;
+			}
+		}
+		int[] merged = new int[n];
+		for (int width=run; width<n; width*=2) {
+			for (int left=0; left<n; left+=2*width) {
+				int middle = Math.min( n, left+width );
+				int right = Math.min( n, left+2*width );
+				int i = left;
+				int j = middle;
+				int k = left;
+				while (i < middle && j < right) merged[k++] = ( sign*compare( keys[ order[i] ], keys[ order[j] ] ) <= 0 ? order[i++] : order[j++] );
+				while (i < middle) merged[k++] = order[i++];
+				while (j < right) merged[k++] = order[j++];
+			}
+			int[] swap = order;
+			order = merged;
+			merged = swap;
+		}
+		return order;
+	}
+
+	public SortTable sort ( int column ) {
+		return sort( column, false );
+	}
+
+	public SortTable sortReverse ( int column ) {
+		return sort( column, true );
+	}
+
+	// zero-copy: the result is a view of these rows in sorted order
+	private SortTable sort ( int column, boolean reverse ) {
+		obtainWriteLock();
+		try {
+			List<List<String>> rows = data();
+			SortedTable sorted = new SortedTable();
+			sorted.data( new Permutation( rows, order( rows, column, reverse ), 0, rows.size() ) );
+			sorted.sortedCol = ( reverse ? -1 : column );
+			return sorted;
+		} finally {
+			releaseWriteLock();
+		}
+	}
+
+	// first row with key >= value (strict: > value)
+	private int bound ( String value, boolean strict ) {
+		List<List<String>> rows = data();
+		int low = 0;
+		int high = rows.size();
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			int c = compare( key( rows.get(mid), sortedCol ), value );
+			if (c < 0 || (strict && c == 0)) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	public SortTable last ( int column, String thisAndFollowing ) {
+		return slice( column, thisAndFollowing, null );
+	}
+
+	// both ends inclusive; a null end is open. Binary search on the sorted column, a scan on any other
+	public SortTable slice ( int column, String thisAndFollowing, String approachingThisLimit ) {
+		SortedTable result = new SortedTable();
+		if (column == sortedCol && data() instanceof Permutation) {
+			int from = ( thisAndFollowing != null ? bound( thisAndFollowing, false ) : 0 );
+			int to = ( approachingThisLimit != null ? bound( approachingThisLimit, true ) : rowCount() );
+			// nulls sort first but never match a bound
+			while (from < to && key( data().get(from), column ) == null) from++;
+			result.data( ((Permutation)data()).window( from, Math.max( from, to ) ) );
+			result.sortedCol = column;
+			return result;
+		}
+		List<List<String>> matches = new ArrayList<>();
+		for (List<String> row : data()) {
+			String value = key( row, column );
+			if (value == null) continue;
+			if (thisAndFollowing != null && value.compareTo( thisAndFollowing ) < 0) continue;
+			if (approachingThisLimit != null && value.compareTo( approachingThisLimit ) > 0) continue;
+			matches.add( row );
+		}
+		result.data( matches );
+		return result;
+	}
+
+
+	// writing
+
+	// a sorted view gets its own rows before its first write, and stops being sorted
+	private void materialize () {
+		if (data() instanceof Permutation) super.data( new ArrayList<>( data() ) );
+		sortedCol = -1;
+	}
+
+	@Override
+	public Table append ( List<String> row ) {
+		materialize();
+		return super.append( row );
+	}
+
+	@Override
+	public Table append ( String serial ) {
+		materialize();
+		return super.append( serial );
+	}
+
+	@Override
+	public Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
+		materialize();
+		return super.replace( replacements, row0, col0, row1, col1 );
+	}
+
+
+	// external sort, for files larger than memory: sorted runs of at most maxBytes of rows, then k-way merges;
+	// the runs are lossless, and out is written so that it parses back to exactly the rows of in, sorted
+
+	public static void sort ( File in, File out, int column, boolean reverse, long maxBytes ) throws Exception {
+		sort( in, out, ",", column, reverse, maxBytes, null );
+	}
+
+	// spillDirectory: where the runs go, null: the system temp directory
+	public static void sort ( File in, File out, String comma, int column, boolean reverse, long maxBytes, File spillDirectory ) throws Exception {
+		List<Run> runs = new ArrayList<>();
+		try {
+			try (CSVReader reader = CSVFile.reader( in, comma )) {
+				List<List<String>> rows = new ArrayList<>();
+				long position = 0; // of the first row in 'rows'
+				long bytes = 0;
+				while (reader.hasNext()) {
+					List<String> row = reader.next();
+					rows.add( row );
+					bytes += bytes( row );
+					if (bytes >= maxBytes) {
+						runs.add( run( rows, position, column, reverse, spillDirectory ) );
+						position += rows.size();
+						rows = new ArrayList<>();
+						bytes = 0;
+					}
+				}
+				if (runs.isEmpty()) {
+					// it fits: sort in memory, straight to out
+					try (Writer writer = writer( out )) {
+						CSV csv = new CSV( comma, "\\", "\"" );
+						for (List<String> row : new Permutation( rows, order( rows, column, reverse ), 0, rows.size() )) csv.serialEscaped( row, writer );
+					}
+					return;
+				}
+				if (! rows.isEmpty()) runs.add( run( rows, position, column, reverse, spillDirectory ) );
+			}
+			while (runs.size() > MAX_FAN_IN) {
+				List<Run> merged = new ArrayList<>();
+				for (int i=0; i<runs.size(); i+=MAX_FAN_IN) {
+					Run pass = new Run( "creek-sort-", spillDirectory );
+					merged.add( pass );
+					merge( runs.subList( i, Math.min( runs.size(), i+MAX_FAN_IN ) ), column, reverse, (position, row) -> pass.write( position, row ) );
+				}
+				for (Run run : runs) run.delete();
+				runs = merged;
+			}
+			try (Writer writer = writer( out )) {
+				CSV csv = new CSV( comma, "\\", "\"" );
+				merge( runs, column, reverse, (position, row) -> csv.serialEscaped( row, writer ) );
+			}
+		} finally {
+			for (Run run : runs) run.delete();
+		}
+	}
+
+	// rough heap footprint of a row
+	private static long bytes ( List<String> row ) {
+		long bytes = 64;
+		for (String item : row) bytes += 48 + ( item != null ? 2L*item.length() : 0 );
+		return bytes;
+	}
+
+	// a sorted run; each row is tagged with its position in the input
+	private static Run run ( List<List<String>> rows, long position, int column, boolean reverse, File spillDirectory ) throws Exception {
+		Run run = new Run( "creek-sort-", spillDirectory );
+		int[] order = order( rows, column, reverse );
+		for (int i=0; i<order.length; i++) run.write( position+order[i], rows.get( order[i] ) );
+		run.close();
+		return run;
+	}
+
+	private static Writer writer ( File file ) throws IOException {
+		return new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ) ), 65536 );
+	}
+
+	private interface Output {
+		void write ( long position, List<String> row ) throws IOException;
+	}
+
+	private static class Head {
+		List<String> row;
+		String key;
+		long position;
+		Run.Cursor cursor;
+	}
+
+	// k-way merge; on equal keys the row that came first in the input goes first, which keeps the sort stable
+	private static void merge ( List<Run> runs, int column, boolean reverse, Output out ) throws Exception {
+		int sign = ( reverse ? -1 : 1 );
+		PriorityQueue<Head> heads = new PriorityQueue<>( Math.max( 1, runs.size() ), (a, b) -> {
+			int c = sign*compare( a.key, b.key );
+			return ( c != 0 ? c : Long.compare( a.position, b.position ) );
+		} );
+		List<Run.Cursor> cursors = new ArrayList<>();
+		try {
+			for (Run run : runs) {
+				Head head = new Head();
+				head.cursor = run.cursor();
+				cursors.add( head.cursor );
+				if (advance( head, column )) heads.add( head );
+			}
+			while (! heads.isEmpty()) {
+				Head head = heads.poll();
+				out.write( head.position, head.row );
+				if (advance( head, column )) heads.add( head );
+			}
+		} finally {
+			for (Run.Cursor cursor : cursors) cursor.close();
+		}
+	}
+
+	private static boolean advance ( Head head, int column ) throws IOException {
+		if (! head.cursor.next()) return false;
+		head.row = head.cursor.row();
+		head.key = key( head.row, column );
+		head.position = head.cursor.tag();
+		return true;
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		SortedTable letters = new SortedTable(
+			"k 1\n"+
+			"b 2\n"+
+			"x 3\n"+
+			"b 4\n"+
+			"a 5\n"
+		);
+		System.out.println( "sort(0):\n"+letters.sort(0) );
+		System.out.println( "sortReverse(0):\n"+letters.sortReverse(0) );
+		System.out.println( "sort(0).slice(0, b, k):\n"+letters.sort(0).slice( 0, "b", "k" ) );
+
+		int rows = ( args.length > 0 ? Integer.parseInt( args[0] ) : 200000 );
+		Random random = new Random( 1 );
+		File in = null;
+		File out = null;
+		try {
+			in = File.createTempFile( "creek-sort-in-", ".csv" );
+			out = File.createTempFile( "creek-sort-out-", ".csv" );
+			Table samples = new SimpleTable();
+			for (int i=0; i<rows; i++) samples.append( new String[]{ String.format( "2024-01-%02d_%06d_%03d", 1+random.nextInt(28), random.nextInt(240000), random.nextInt(1000) ), "host"+(i%10), String.valueOf(i) } );
+			(new CSVFile( in, false, samples, "," )).close();
+
+			Stats stats = new Stats( rows+" rows" );
+			SortTable sorted = (new SortedTable( samples )).sort(0);
+			stats.display( "in memory, permutation sort" );
+			List<List<String>> copy = new ArrayList<>( samples.data() );
+			copy.sort( Comparator.comparing( (List<String> row) -> row.get(0) ) );
+			stats.display( "in memory, List.sort of a copy" );
+			System.out.println( "same order: "+copy.equals( sorted.data() ) );
+
+			long budget = in.length()*2;
+			stats.delta();
+			sort( in, out, 0, false, budget*64 );
+			stats.display( "file sort within budget" );
+			sort( in, out, 0, false, budget/20 );
+			stats.display( "external merge sort, budget of 1/20" );
+			List<List<String>> merged = new ArrayList<>();
+			try (CSVReader reader = CSVFile.reader( out, "," )) {
+				while (reader.hasNext()) merged.add( reader.next() );
+			}
+			System.out.println( "same order: "+copy.equals( merged ) );
+
+			// cells with quotes, backslashes, commas and line breaks come out as they went in, whatever the budget
+			Table awkward = new SimpleTable();
+			String[] items = { "say \"hi\"", "\"quoted\"", "a\\b", "c:\\dir\\", "x,y", "line\nbreak", "\\\"", "" };
+			for (int i=0; i<400; i++) awkward.data().add( new ArrayList<>( Arrays.asList( "k"+random.nextInt(50), items[ i%items.length ], items[ (i/8)%items.length ] ) ) );
+			awkward.data().add( new ArrayList<>( Arrays.asList( "" ) ) );
+			try (Writer writer = writer( in )) {
+				CSV csv = new CSV();
+				for (List<String> row : awkward.data()) csv.serialEscaped( row, writer );
+			}
+			List<List<String>> expected = new ArrayList<>( awkward.data() );
+			expected.sort( Comparator.comparing( (List<String> row) -> row.get(0) ) );
+			for (long maxBytes : new long[]{ Long.MAX_VALUE, 300 }) {
+				sort( in, out, 0, false, maxBytes );
+				List<List<String>> read = new ArrayList<>();
+				try (CSVReader reader = CSVFile.reader( out, "," )) {
+					while (reader.hasNext()) read.add( reader.next() );
+				}
+				System.out.println( "awkward cells, "+( maxBytes == Long.MAX_VALUE ? "in memory" : "external" )+": "+( expected.equals( read ) ? "same rows" : "DIFFERENT ROWS" ) );
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (in != null) in.delete();
+			if (out != null) out.delete();
+		}
+	}
+
+}
@@ -19,6 +19,13 @@ public class StringFunctions {
 		return set;
 	}
 	
+	// every distinct substring of exactly n chars, in order of first occurrence
+	public static Set<String> ngrams ( String word, int n ) {
+		Set<String> set = new LinkedHashSet<>();
+		for (int pos=0; pos+n<=word.length(); pos++) set.add( word.substring(pos, pos+n) );
+		return set;
+	}
+	
 	public static void main ( String[] args ) throws Exception {
 		System.out.println(
 			StringFunctions.substrings( args[0], Integer.valueOf(args[1]) )
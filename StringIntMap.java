@@ -0,0 +1,145 @@
+package creek;
+
+import java.util.*;
+
+// String -> int map with open addressing and no boxing on getInt/putInt; iterates in insertion order
+public class StringIntMap extends AbstractMap<String,Integer> {
+
+	// entries in insertion order
+	private String[] keys;
+	private int[] values;
+	private int[] hashes;
+	private int size;
+
+	// open-addressing table of entry index+1, 0: empty slot
+	private int[] slots;
+
+
+	public StringIntMap () {
+		this( 8 );
+	}
+
+	public StringIntMap ( int capacity ) {
+		capacity = Math.max( 2, capacity );
+		keys = new String[capacity];
+		values = new int[capacity];
+		hashes = new int[capacity];
+		slots = new int[ Integer.highestOneBit( capacity*2-1 )*2 ];
+	}
+
+
+	private static int hash ( Object key ) {
+		int h = ( key == null ? 0 : key.hashCode() );
+		return h ^ (h >>> 16);
+	}
+
+	// entry index of key, or -1
+	private int find ( Object key ) {
+		int h = hash( key );
+		int mask = slots.length-1;
+		for (int slot = h & mask; slots[slot] != 0; slot = (slot+1) & mask) {
+			int entry = slots[slot]-1;
+			if (hashes[entry] == h && Objects.equals( keys[entry], key )) return entry;
+		}
+		return -1;
+	}
+
+	// -1 if absent
+	public int getInt ( String key ) {
+		int entry = find( key );
+		return ( entry < 0 ? -1 : values[entry] );
+	}
+
+	public StringIntMap putInt ( String key, int value ) {
+		int h = hash( key );
+		int mask = slots.length-1;
+		int slot = h & mask;
+		for (; slots[slot] != 0; slot = (slot+1) & mask) {
+			int entry = slots[slot]-1;
+			if (hashes[entry] == h && Objects.equals( keys[entry], key )) {
+				values[entry] = value;
+				return this;
+			}
+		}
+		if (size == keys.length) {
+			int capacity = size*2;
+			keys = Arrays.copyOf( keys, capacity );
+			values = Arrays.copyOf( values, capacity );
+			hashes = Arrays.copyOf( hashes, capacity );
+		}
+		keys[size] = key;
+		values[size] = value;
+		hashes[size] = h;
+		slots[slot] = ++size;
+		// keep the table at most half full
+		if (size*2 > slots.length) rehash( slots.length*2 );
+		return this;
+	}
+
+	private void rehash ( int capacity ) {
+		slots = new int[capacity];
+		int mask = capacity-1;
+		for (int entry=0; entry<size; entry++) {
+			int slot = hashes[entry] & mask;
+			while (slots[slot] != 0) slot = (slot+1) & mask;
+			slots[slot] = entry+1;
+		}
+	}
+
+
+	// Map interface (boxes)
+
+	@Override
+	public Integer get ( Object key ) {
+		int entry = find( key );
+		return ( entry < 0 ? null : values[entry] );
+	}
+
+	@Override
+	public boolean containsKey ( Object key ) {
+		return find( key ) >= 0;
+	}
+
+	@Override
+	public Integer put ( String key, Integer value ) {
+		Integer previous = get( key );
+		putInt( key, value );
+		return previous;
+	}
+
+	@Override
+	public int size () {
+		return size;
+	}
+
+	@Override
+	public void clear () {
+		Arrays.fill( keys, 0, size, null );
+		Arrays.fill( slots, 0 );
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String,Integer>> entrySet () {
+		return new AbstractSet<Map.Entry<String,Integer>>() {
+			public int size () {
+				return size;
+			}
+			public Iterator<Map.Entry<String,Integer>> iterator () {
+				return new Iterator<Map.Entry<String,Integer>>() {
+					private int entry = 0;
+					public boolean hasNext () {
+						return entry < size;
+					}
+					public Map.Entry<String,Integer> next () {
+						if (entry >= size) throw new NoSuchElementException();
+						Map.Entry<String,Integer> next = new AbstractMap.SimpleImmutableEntry<>( keys[entry], values[entry] );
+						entry++;
+						return next;
+					}
+				};
+			}
+		};
+	}
+
+}
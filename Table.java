@@ -24,6 +24,7 @@ public interface Table {
 	
 	// Write-lock mechanism
 	public void obtainWriteLock();
+	public boolean tryObtainWriteLock( long timeoutMillis );
 	public void releaseWriteLock();
 
 	// Write-locked and thread-safe
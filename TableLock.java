@@ -0,0 +1,222 @@
+package creek;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.*;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+public class TableLock {
+
+	// lock modes
+	public static final int SPIN = 0;       // AtomicBoolean polled every 1ms, readers take no lock
+	public static final int READ_WRITE = 1; // ReentrantReadWriteLock, readers share the read lock
+	public static final int STAMPED = 2;    // StampedLock, readers try an optimistic read first
+
+	private final int mode;
+
+	private AtomicBoolean spin;
+	private ReentrantReadWriteLock readWrite;
+	private StampedLock stamped;
+
+	// StampedLock is not reentrant, so the owning writer is tracked here
+	private volatile Thread writer;
+	private long writeStamp;
+	private int writeHolds;
+
+
+	public TableLock () {
+		this( READ_WRITE );
+	}
+
+	public TableLock ( int mode ) {
+		this.mode = mode;
+		if (mode == SPIN) spin = new AtomicBoolean(false);
+		else if (mode == READ_WRITE) readWrite = new ReentrantReadWriteLock();
+		else if (mode == STAMPED) stamped = new StampedLock();
+		else throw new IllegalArgumentException( "unknown lock mode: "+mode );
+	}
+
+	public int mode () {
+		return mode;
+	}
+
+
+	// writers
+
+	public void writeLock () {
+		if (mode == SPIN) {
+			while (!spin.compareAndSet( false, true )) {
+				try {
+					Thread.sleep(1);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		} else if (mode == READ_WRITE) {
+			readWrite.writeLock().lock();
+		} else {
+			if (writer == Thread.currentThread()) {
+				writeHolds++;
+				return;
+			}
+			writeStamp = stamped.writeLock();
+			writer = Thread.currentThread();
+			writeHolds = 1;
+		}
+	}
+
+	public boolean tryWriteLock ( long timeoutMillis ) {
+		try {
+			if (mode == SPIN) {
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+				while (!spin.compareAndSet( false, true )) {
+					if (System.nanoTime() >= deadline) return false;
+					Thread.sleep(1);
+				}
+				return true;
+			} else if (mode == READ_WRITE) {
+				return readWrite.writeLock().tryLock( timeoutMillis, TimeUnit.MILLISECONDS );
+			} else {
+				if (writer == Thread.currentThread()) {
+					writeHolds++;
+					return true;
+				}
+				long stamp = stamped.tryWriteLock( timeoutMillis, TimeUnit.MILLISECONDS );
+				if (stamp == 0) return false;
+				writeStamp = stamp;
+				writer = Thread.currentThread();
+				writeHolds = 1;
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void writeUnlock () {
+		if (mode == SPIN) {
+			spin.set( false );
+		} else if (mode == READ_WRITE) {
+			readWrite.writeLock().unlock();
+		} else {
+			if (--writeHolds > 0) return;
+			writer = null;
+			stamped.unlockWrite( writeStamp );
+		}
+	}
+
+
+	// readers
+
+	public void readLock () {
+		if (mode == READ_WRITE) readWrite.readLock().lock();
+		else if (mode == STAMPED && writer != Thread.currentThread()) stamped.asReadLock().lock();
+	}
+
+	public void readUnlock () {
+		if (mode == READ_WRITE) readWrite.readLock().unlock();
+		else if (mode == STAMPED && writer != Thread.currentThread()) stamped.asReadLock().unlock();
+	}
+
+	public <T> T read ( Supplier<T> reader ) {
+		if (mode == SPIN || writer == Thread.currentThread()) return reader.get();
+		if (mode == STAMPED) {
+			long stamp = stamped.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					T value = reader.get();
+					if (stamped.validate( stamp )) return value;
+				} catch (RuntimeException e) {
+					// torn read of a structure being written, retry below under the read lock
+				}
+			}
+		}
+		readLock();
+		try {
+			return reader.get();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	// same as read(), without boxing the result
+	public int readInt ( IntSupplier reader ) {
+		if (mode == SPIN || writer == Thread.currentThread()) return reader.getAsInt();
+		if (mode == STAMPED) {
+			long stamp = stamped.tryOptimisticRead();
+			if (stamp != 0) {
+				try {
+					int value = reader.getAsInt();
+					if (stamped.validate( stamp )) return value;
+				} catch (RuntimeException e) {
+					// torn read of a structure being written, retry below under the read lock
+				}
+			}
+		}
+		readLock();
+		try {
+			return reader.getAsInt();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	public String toString () {
+		return ( mode == SPIN ? "SPIN" : ( mode == READ_WRITE ? "READ_WRITE" : "STAMPED" ) );
+	}
+
+}
+
+class BenchTableLock {
+
+	// every thread appends one row per (reads) item() calls
+	private static long run ( int mode, int threads, int opsPerThread, int reads ) throws Exception {
+		final AbstractTable table = new SimpleTable();
+		table.lockMode( mode );
+		for (int i=0; i<1000; i++) table.append( new String[]{ String.valueOf(i), "seed" } );
+		ExecutorService pool = Executors.newFixedThreadPool( threads );
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t=0; t<threads; t++) {
+			final String name = "t"+t;
+			futures.add( pool.submit( () -> {
+				start.await();
+				for (int op=0; op<opsPerThread; op++) {
+					if (op % (reads+1) == 0) {
+						table.append( new String[]{ name, String.valueOf(op) } );
+					} else {
+						int rows = table.rowCount();
+						table.item( op % rows, 1 );
+					}
+				}
+				return null;
+			} ) );
+		}
+		long t0 = Stats.time();
+		start.countDown();
+		for (Future<?> future : futures) future.get();
+		long elapsed = Stats.time() - t0;
+		pool.shutdown();
+		return elapsed;
+	}
+
+	public static void main ( String[] args ) throws Exception {
+		int ops = ( args.length > 0 ? Integer.parseInt( args[0] ) : 2000 );
+		int reads = ( args.length > 1 ? Integer.parseInt( args[1] ) : 9 );
+		int[] modes = new int[]{ TableLock.SPIN, TableLock.READ_WRITE, TableLock.STAMPED };
+		for (int mode : modes) run( mode, 4, ops, reads ); // warm-up
+		Table results = new SimpleTable();
+		results.append( new String[]{ "threads", "SPIN", "READ_WRITE", "STAMPED" } );
+		for (int threads=1; threads<=32; threads*=2) {
+			String[] line = new String[ modes.length+1 ];
+			line[0] = String.valueOf( threads );
+			for (int m=0; m<modes.length; m++) line[m+1] = Stats.ms( run( modes[m], threads, ops, reads ) );
+			results.append( line );
+		}
+		System.out.println( ops+" ops/thread, "+reads+" item() reads per append:\n"+results );
+	}
+
+}
@@ -1,6 +1,7 @@
 package creek;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Tables {
 
@@ -87,6 +88,131 @@ public class Tables {
 		return html.toString();
 	}
 
+	// joins: build a hash table on the right table's keys, then stream the left table's rows past it
+	
+	public static final int INNER = 0; // left row + right row (minus its keys), for every match
+	public static final int LEFT = 1;  // as INNER, plus unmatched left rows padded with ""
+	public static final int ANTI = 2;  // left rows without a match
+	
+	// probe chunks under this many rows aren't worth a thread
+	private static final int MIN_PROBE_ROWS = 10000;
+	
+	public static Table join ( Table left, int leftKey, Table right, int rightKey, int type ) {
+		return join( left, new int[]{ leftKey }, right, new int[]{ rightKey }, type, 1 );
+	}
+	
+	public static Table join ( Table left, int[] leftKeys, Table right, int[] rightKeys, int type ) {
+		return join( left, leftKeys, right, rightKeys, type, 1 );
+	}
+	
+	// rows come out in left table order, matches in right table order; null keys never match
+	public static Table join ( Table left, int[] leftKeys, Table right, int[] rightKeys, int type, int threads ) {
+		if (leftKeys.length != rightKeys.length || leftKeys.length == 0) throw new IllegalArgumentException( "join needs the same number of key columns on both sides" );
+		if (type < INNER || type > ANTI) throw new IllegalArgumentException( "unknown join type: "+type );
+		
+		// build: key -> first matching right row, next[row] -> the following one, -1 ends the chain
+		List<List<String>> build = right.data();
+		int buildRows = build.size();
+		StringIntMap first = new StringIntMap( buildRows );
+		int[] next = new int[ buildRows ];
+		int width = 0;
+		for (int row=buildRows-1; row>=0; row--) {
+			List<String> buildRow = build.get(row);
+			width = Math.max( width, buildRow.size() );
+			String key = key( buildRow, rightKeys );
+			if (key == null) continue;
+			int following = first.getInt( key );
+			next[row] = following;
+			first.putInt( key, row );
+		}
+		// the right row's columns in the output: all but the keys
+		int[] carried = new int[ Math.max( 0, width-distinct( rightKeys, width ) ) ];
+		for (int col=0, c=0; col<width; col++) {
+			if (! contains( rightKeys, col )) carried[c++] = col;
+		}
+		
+		// probe
+		List<List<String>> probe = left.data();
+		int probeRows = probe.size();
+		int chunks = ( threads > 1 && probeRows >= MIN_PROBE_ROWS*2 ? Math.min( threads*4, probeRows/MIN_PROBE_ROWS ) : 1 );
+		if (chunks == 1) return (new SimpleTable()).data( probe( probe, 0, probeRows, leftKeys, build, first, next, carried, type ) );
+		ForkJoinPool pool = new ForkJoinPool( threads );
+		try {
+			List<Callable<List<List<String>>>> parts = new ArrayList<>();
+			for (int k=0; k<chunks; k++) {
+				final int from = (int)( (long)probeRows*k/chunks );
+				final int to = (int)( (long)probeRows*(k+1)/chunks );
+				parts.add( () -> probe( probe, from, to, leftKeys, build, first, next, carried, type ) );
+			}
+			List<List<String>> rows = new ArrayList<>( probeRows );
+			for (Future<List<List<String>>> part : pool.invokeAll( parts )) rows.addAll( part.get() );
+			return (new SimpleTable()).data( rows );
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch (ExecutionException e) {
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static List<List<String>> probe ( List<List<String>> probe, int from, int to, int[] leftKeys, List<List<String>> build, StringIntMap first, int[] next, int[] carried, int type ) {
+		List<List<String>> rows = new ArrayList<>( to-from );
+		for (int row=from; row<to; row++) {
+			List<String> probeRow = probe.get(row);
+			String key = key( probeRow, leftKeys );
+			int match = ( key != null ? first.getInt( key ) : -1 );
+			if (type == ANTI) {
+				if (match < 0) rows.add( probeRow );
+				continue;
+			}
+			if (match < 0) {
+				if (type == LEFT) rows.add( joined( probeRow, null, carried ) );
+				continue;
+			}
+			for (; match >= 0; match = next[match]) rows.add( joined( probeRow, build.get( match ), carried ) );
+		}
+		return rows;
+	}
+	
+	private static List<String> joined ( List<String> probeRow, List<String> buildRow, int[] carried ) {
+		List<String> row = new ArrayList<>( probeRow.size()+carried.length );
+		row.addAll( probeRow );
+		for (int col : carried) row.add( buildRow != null && col < buildRow.size() ? buildRow.get( col ) : "" );
+		return row;
+	}
+	
+	// one key column as is; several length-prefixed so that no two key lists collide; null if any is missing
+	private static String key ( List<String> row, int[] cols ) {
+		if (cols.length == 1) return ( cols[0] >= 0 && cols[0] < row.size() ? row.get( cols[0] ) : null );
+		StringBuilder key = new StringBuilder();
+		for (int col : cols) {
+			String item = ( col >= 0 && col < row.size() ? row.get( col ) : null );
+			if (item == null) return null;
+			key.append( item.length() ).append( ':' ).append( item );
+		}
+		return key.toString();
+	}
+	
+	private static boolean contains ( int[] cols, int col ) {
+		for (int c : cols) if (c == col) return true;
+		return false;
+	}
+	
+	// key columns that fall within width, each counted once
+	private static int distinct ( int[] cols, int width ) {
+		int count = 0;
+		for (int col=0; col<width; col++) if (contains( cols, col )) count++;
+		return count;
+	}
+	
+	
+	// aggregation, e.g. Tables.groupBy( table, 0 ).count().sum(2).table()
+	
+	public static GroupBy groupBy ( Table table, int... keyCols ) {
+		return new GroupBy( table, keyCols );
+	}
 	
 	
 	// testing
@@ -101,6 +227,46 @@ public class Tables {
 		System.out.println( st );
 		System.out.println( Tables.mergeVertical( st, "-" ) );
 		System.out.println( Tables.html( st ) );
+		
+		Table people = new SimpleTable(
+			"1 ann  nyc\n"+
+			"2 bob  sfo\n"+
+			"3 cat  nyc\n"+
+			"4 dan  -\n"
+		);
+		Table cities = new SimpleTable(
+			"nyc New_York\n"+
+			"sfo San_Francisco\n"+
+			"nyc NYC\n"
+		);
+		System.out.println( "INNER join on city:\n"+Tables.join( people, 2, cities, 0, INNER ) );
+		System.out.println( "LEFT join on city:\n"+Tables.join( people, 2, cities, 0, LEFT ) );
+		System.out.println( "ANTI join on city:\n"+Tables.join( people, 2, cities, 0, ANTI ) );
+		
+		if (args.length > 0) {
+			int rows = Integer.parseInt( args[0] );
+			int keys = rows/10;
+			Random random = new Random( 1 );
+			Table facts = new SimpleTable();
+			for (int i=0; i<rows; i++) facts.append( new String[]{ String.valueOf(i), "key"+random.nextInt( keys+keys/10 ), "x" } );
+			Table dimension = new SimpleTable();
+			for (int i=0; i<keys; i++) dimension.append( new String[]{ "key"+i, "name"+i } );
+			Stats stats = new Stats( rows+" x "+keys+" rows" );
+			for (int round=0; round<2; round++) {
+				LookupTable lookup = new LookupTable( dimension );
+				Table enriched = new SimpleTable();
+				for (List<String> row : facts.data()) {
+					List<String> out = new ArrayList<>( row );
+					out.add( lookup.colLookup( 0, 1, row.get(1) ) );
+					enriched.append( out );
+				}
+				stats.display( "LookupTable.colLookup loop: "+enriched.rowCount()+" rows" );
+				for (int threads : new int[]{ 1, 2, 4 }) {
+					Table joined = Tables.join( facts, new int[]{ 1 }, dimension, new int[]{ 0 }, LEFT, threads );
+					stats.display( "LEFT join, "+threads+" thread(s): "+joined.rowCount()+" rows" );
+				}
+			}
+		}
 	}
 	
 }
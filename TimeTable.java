@@ -0,0 +1,365 @@
+package creek;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+public class TimeTable extends SimpleTable implements LogTable {
+
+	private int timeCol;
+	private String dateTimeFormat;
+	private DateTimeFormatter format;
+	private ZoneId zone;
+
+	// false for a table sorted by some other column: time queries then scan
+	private boolean ordered = true;
+
+	// epoch nanos of row i at nanos[base+i]; a view shares its parent's array
+	private long[] nanos = new long[1024];
+	private int base;
+	private int count;
+	private List<List<String>> indexed; // the list the nanos belong to
+
+	// read-only window onto the parent's rows; the parent only ever adds rows at the end of its list
+	private static class Window extends AbstractList<List<String>> {
+
+		private final List<List<String>> rows;
+		private final int from;
+		private final int size;
+
+		Window ( List<List<String>> rows, int from, int to ) {
+			this.rows = rows;
+			this.from = from;
+			this.size = to-from;
+		}
+
+		public List<String> get ( int row ) {
+			if (row < 0 || row >= size) throw new IndexOutOfBoundsException( "row "+row );
+			return rows.get( from+row );
+		}
+
+		public int size () {
+			return size;
+		}
+	}
+
+
+	// constructors
+
+	public TimeTable () {
+		this( 0, "yyyy-MM-dd_HHmmss_SSS", ZoneId.systemDefault() );
+	}
+
+	public TimeTable ( int timeCol, String dateTimeFormat, ZoneId zone ) {
+		super();
+		this.timeCol = timeCol;
+		this.dateTimeFormat = dateTimeFormat;
+		this.format = DateTimeFormatter.ofPattern( dateTimeFormat );
+		this.zone = zone;
+	}
+
+	public TimeTable ( Table table ) {
+		this();
+		data( new ArrayList<>( table.data() ) );
+	}
+
+	public TimeTable ( Table table, int timeCol, String dateTimeFormat, ZoneId zone ) {
+		this( timeCol, dateTimeFormat, zone );
+		data( new ArrayList<>( table.data() ) );
+	}
+
+	public Table create () {
+		return new TimeTable( timeCol, dateTimeFormat, zone );
+	}
+
+
+	// time index
+
+	private long nanos ( String timestamp ) {
+		try {
+			Instant instant = LocalDateTime.parse( timestamp, format ).atZone( zone ).toInstant();
+			return instant.getEpochSecond()*1000000000L + instant.getNano();
+		} catch (Exception e) {
+			return Long.MIN_VALUE; // unparseable (or missing) timestamps sort first
+		}
+	}
+
+	private static long nanos ( ZonedDateTime time ) {
+		Instant instant = time.toInstant();
+		return instant.getEpochSecond()*1000000000L + instant.getNano();
+	}
+
+	private long nanos ( List<String> row ) {
+		return nanos( timeCol < row.size() ? row.get( timeCol ) : null );
+	}
+
+	private long time ( int row ) {
+		return nanos[ base+row ];
+	}
+
+	// catch up with rows that arrived without append(List), e.g. parsed text or data(List)
+	private synchronized void index () {
+		List<List<String>> rows = data();
+		if (rows == indexed && rows.size() == count) return;
+		if (rows != indexed) {
+			indexed = rows;
+			count = 0;
+			base = 0;
+			nanos = new long[ Math.max( 1024, rows.size() ) ];
+		}
+		int size = rows.size();
+		if (base+size > nanos.length) {
+			nanos = Arrays.copyOfRange( nanos, base, base+Math.max( size, nanos.length*2 ) );
+			base = 0;
+		}
+		boolean sorted = true;
+		for (; count<size; count++) {
+			nanos[base+count] = nanos( rows.get( count ) );
+			if (count > 0 && nanos[base+count] < nanos[base+count-1]) sorted = false;
+		}
+		if (!sorted && ordered) {
+			// stable sort of the rows by time, into a new list so that views keep theirs
+			final long[] times = Arrays.copyOfRange( nanos, base, base+size );
+			Integer[] order = new Integer[size];
+			for (int i=0; i<size; i++) order[i] = i;
+			Arrays.sort( order, (a, b) -> Long.compare( times[a], times[b] ) );
+			List<List<String>> sortedRows = new ArrayList<>( size );
+			long[] sortedNanos = new long[ nanos.length ];
+			for (int i=0; i<size; i++) {
+				sortedRows.add( rows.get( order[i] ) );
+				sortedNanos[i] = times[ order[i] ];
+			}
+			super.data( sortedRows );
+			indexed = sortedRows;
+			nanos = sortedNanos;
+			base = 0;
+		}
+	}
+
+	// first row with time >= t
+	private int lowerBound ( long t ) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low+high) >>> 1;
+			if (time(mid) < t) low = mid+1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	// first row with time > t
+	private int upperBound ( long t ) {
+		return ( t == Long.MAX_VALUE ? count : lowerBound( t+1 ) );
+	}
+
+	// zero-copy view of rows [from,to)
+	private synchronized TimeTable window ( int from, int to ) {
+		TimeTable view = new TimeTable( timeCol, dateTimeFormat, zone );
+		view.ordered = ordered;
+		view.data( new Window( indexed, from, to ) );
+		view.indexed = view.data();
+		view.nanos = nanos;
+		view.base = base+from;
+		view.count = to-from;
+		return view;
+	}
+
+	// a view gets its own rows before its first write, so that writing a cell leaves the parent alone
+	private void materialize () {
+		if (!(data() instanceof Window)) return;
+		List<List<String>> rows = new ArrayList<>( Math.max( 10, count ) );
+		for (List<String> row : data()) rows.add( row != null ? new ArrayList<>( row ) : null );
+		nanos = Arrays.copyOfRange( nanos, base, base+Math.max( 1024, count*2 ) );
+		base = 0;
+		super.data( rows );
+		indexed = rows;
+	}
+
+	// rows matching the time range, by scanning (for tables that aren't in time order)
+	private TimeTable scan ( long from, long to ) {
+		List<List<String>> rows = data();
+		List<List<String>> matches = new ArrayList<>();
+		for (int i=0; i<count; i++) {
+			if (time(i) >= from && time(i) <= to) matches.add( rows.get(i) );
+		}
+		TimeTable result = new TimeTable( timeCol, dateTimeFormat, zone );
+		result.ordered = ordered;
+		result.data( matches );
+		return result;
+	}
+
+
+	// writing
+
+	@Override
+	public synchronized Table append ( List<String> row ) {
+		if (row == null) return this;
+		index();
+		materialize();
+		long t = nanos( row );
+		if (!ordered || count == 0 || t >= time(count-1)) {
+			super.append( row );
+			if (base+count == nanos.length) {
+				nanos = Arrays.copyOfRange( nanos, base, base+count*2 );
+				base = 0;
+			}
+			nanos[base+count] = t;
+			count++;
+			return this;
+		}
+		// out of order: insert into a copy, so that views of the old list stay as they were
+		int at = upperBound( t );
+		List<List<String>> rows = new ArrayList<>( count+1 );
+		rows.addAll( data() );
+		rows.add( at, row );
+		long[] times = new long[ Math.max( nanos.length, count*2 ) ];
+		System.arraycopy( nanos, base, times, 0, at );
+		times[at] = t;
+		System.arraycopy( nanos, base+at, times, at+1, count-at );
+		super.data( rows );
+		indexed = rows;
+		nanos = times;
+		base = 0;
+		count++;
+		return this;
+	}
+
+	@Override
+	public synchronized Table append ( String serial ) {
+		materialize();
+		super.append( serial );
+		index();
+		return this;
+	}
+
+
+	// new timestamps are parsed again, into a fresh array so that views keep theirs
+	@Override
+	public synchronized Table replace ( Map<String,String> replacements, int row0, int col0, int row1, int col1 ) {
+		index();
+		materialize();
+		super.replace( replacements, row0, col0, row1, col1 );
+		if (col0 <= timeCol && (col1 < 0 || timeCol < col1)) {
+			indexed = null;
+			index();
+		}
+		return this;
+	}
+
+
+	// LogTable interface
+
+	public LogTable last ( ZonedDateTime time ) {
+		return slice( time, null );
+	}
+
+	// both ends inclusive; a null end is open
+	public LogTable slice ( ZonedDateTime start, ZonedDateTime end ) {
+		return range( ( start != null ? nanos( start ) : Long.MIN_VALUE ), ( end != null ? nanos( end ) : Long.MAX_VALUE ) );
+	}
+
+	private synchronized TimeTable range ( long from, long to ) {
+		index();
+		if (!ordered) return scan( from, to );
+		return window( lowerBound( from ), upperBound( to ) );
+	}
+
+
+	// SortTable interface
+
+	public SortTable sort ( int column ) {
+		return sort( column, false );
+	}
+
+	public SortTable sortReverse ( int column ) {
+		return sort( column, true );
+	}
+
+	private synchronized SortTable sort ( int column, boolean reverse ) {
+		index();
+		if (column == timeCol && !reverse && ordered) return this;
+		List<List<String>> rows = new ArrayList<>( data() );
+		Comparator<List<String>> byColumn = Comparator.comparing( (List<String> row) -> ( column < row.size() ? row.get( column ) : null ), Comparator.nullsFirst( Comparator.<String>naturalOrder() ) );
+		rows.sort( reverse ? byColumn.reversed() : byColumn );
+		TimeTable sorted = new TimeTable( timeCol, dateTimeFormat, zone );
+		sorted.ordered = false;
+		sorted.data( rows );
+		return sorted;
+	}
+
+	public SortTable last ( int column, String thisAndFollowing ) {
+		return slice( column, thisAndFollowing, null );
+	}
+
+	// both ends inclusive; a null end is open
+	public synchronized SortTable slice ( int column, String thisAndFollowing, String approachingThisLimit ) {
+		if (column == timeCol) {
+			// bounds that parse as timestamps go through the time index
+			long from = ( thisAndFollowing != null ? nanos( thisAndFollowing ) : Long.MIN_VALUE );
+			long to = ( approachingThisLimit != null ? nanos( approachingThisLimit ) : Long.MAX_VALUE );
+			boolean parsed = ( thisAndFollowing == null || from != Long.MIN_VALUE ) && ( approachingThisLimit == null || to != Long.MIN_VALUE );
+			if (parsed) return range( from, to );
+		}
+		List<List<String>> matches = new ArrayList<>();
+		for (List<String> row : data()) {
+			String value = ( column < row.size() ? row.get( column ) : null );
+			if (value == null) continue;
+			if (thisAndFollowing != null && value.compareTo( thisAndFollowing ) < 0) continue;
+			if (approachingThisLimit != null && value.compareTo( approachingThisLimit ) > 0) continue;
+			matches.add( row );
+		}
+		TimeTable result = new TimeTable( timeCol, dateTimeFormat, zone );
+		result.ordered = ordered;
+		result.data( matches );
+		return result;
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		int rows = ( args.length > 0 ? Integer.parseInt( args[0] ) : 200000 );
+		int queries = 1000;
+		DateTimeFormatter format = DateTimeFormatter.ofPattern( "yyyy-MM-dd_HHmmss_SSS" );
+		ZonedDateTime start = ZonedDateTime.now().minusDays(1).truncatedTo( java.time.temporal.ChronoUnit.MILLIS );
+		CSV samples = new CSV();
+		for (int i=0; i<rows; i++) samples.append( new String[]{ format.format( start.plusNanos( i*1000000L ) ), "host"+(i%10), String.valueOf(i) } );
+
+		TimeTable small = new TimeTable();
+		small.append( samples.last(3).row(2) );
+		small.append( samples.last(3).row(0) ); // out of order
+		small.append( samples.last(3).row(1) );
+		System.out.println( "out-of-order appends:\n"+small );
+		Map<String,String> replacements = new HashMap<>();
+		replacements.put( small.item( 2, 0 ), small.item( 0, 0 ) ); // the newest row becomes the oldest
+		TimeTable window = (TimeTable)small.last( start );
+		window.replace( replacements, 0 );
+		System.out.println( "replace() on a window, then last(0, time):\n"+window.last( 0, samples.last(3).row(1)[0] ).rowCount()+" row(s) from the middle one on, parent:\n"+small );
+
+		Stats stats = new Stats( rows+" rows" );
+		TimeTable times = new TimeTable( samples );
+		times.last( start );
+		stats.display( "TimeTable built" );
+		IndexedTable indexed = new IndexedTable( samples );
+		stats.display( "IndexedTable built" );
+
+		Random random = new Random( 1 );
+		long timeRows = 0;
+		long indexedRows = 0;
+		int[] from = new int[queries];
+		for (int q=0; q<queries; q++) from[q] = random.nextInt( rows-1000 );
+		stats.delta();
+		for (int q=0; q<queries; q++) {
+			ZonedDateTime t0 = start.plusNanos( from[q]*1000000L );
+			timeRows += times.slice( t0, t0.plusSeconds(1) ).rowCount();
+		}
+		stats.display( queries+" TimeTable.slice(ZonedDateTime, ZonedDateTime), "+timeRows+" rows" );
+		for (int q=0; q<queries; q++) {
+			ZonedDateTime t0 = start.plusNanos( from[q]*1000000L );
+			indexedRows += indexed.slice( 0, format.format( t0 ), format.format( t0.plusSeconds(1) ) ).rowCount();
+		}
+		stats.display( queries+" IndexedTable.slice(0, from, to), "+indexedRows+" rows" );
+	}
+
+}
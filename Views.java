@@ -0,0 +1,272 @@
+package creek;
+
+import java.util.*;
+
+// zero-copy row lists for slice(), reverse() and set(): read through to the parent's rows until the
+// first write, which gives the view its own copy. Views of views are composed rather than stacked.
+// A view covers the rows the parent had when it was made (the parent's read lock is held for that);
+// like data(), its reads don't take the parent's lock, so the parent may append, but rows it removes
+// or replaces in place are gone from its unwritten views too, and reading past them throws
+class Views {
+
+	private Views () {} // prohibit blank instantiation
+
+	static abstract class Rows extends AbstractList<List<String>> implements RandomAccess {
+
+		private List<List<String>> own; // set by the first write
+
+		abstract List<String> row ( int i );
+		abstract int rows ();
+		abstract List<List<String>> range ( int from, int to );
+		abstract List<List<String>> reversed ();
+
+		// row 'index' of a base, which must still have it
+		static List<String> baseRow ( List<List<String>> base, int index ) {
+			if (index >= base.size()) throw new ConcurrentModificationException( "row "+index+" was removed from under a view" );
+			return base.get( index );
+		}
+
+		// the list rows come from and the index of row i in it, or null if rows aren't base rows
+		List<List<String>> base () {
+			return null;
+		}
+
+		int index ( int i ) {
+			return i;
+		}
+
+		// what a copy holds for row i: a row of its own, so that writing a cell leaves the parent alone
+		List<String> copyRow ( int i ) {
+			List<String> row = row(i);
+			return ( row != null ? new ArrayList<>( row ) : null );
+		}
+
+		boolean copied () {
+			return own != null;
+		}
+
+		List<List<String>> copy () {
+			if (own == null) {
+				int rows = rows();
+				List<List<String>> copy = new ArrayList<>( Math.max( 10, rows ) );
+				for (int i=0; i<rows; i++) copy.add( copyRow(i) );
+				own = copy;
+			}
+			return own;
+		}
+
+		public List<String> get ( int i ) {
+			if (own != null) return own.get(i);
+			if (i < 0 || i >= rows()) throw new IndexOutOfBoundsException( "row "+i );
+			return row(i);
+		}
+
+		public int size () {
+			return ( own != null ? own.size() : rows() );
+		}
+
+		public List<String> set ( int i, List<String> row ) {
+			return copy().set( i, row );
+		}
+
+		public void add ( int i, List<String> row ) {
+			copy().add( i, row );
+			modCount++;
+		}
+
+		public List<String> remove ( int i ) {
+			modCount++;
+			return copy().remove( i );
+		}
+	}
+
+	// rows [from,to) of base
+	private static class Range extends Rows {
+
+		private final List<List<String>> base;
+		private final int from;
+		private final int to;
+
+		Range ( List<List<String>> base, int from, int to ) {
+			this.base = base;
+			this.from = from;
+			this.to = Math.max( from, to );
+		}
+
+		List<String> row ( int i ) {
+			return baseRow( base, from+i );
+		}
+
+		int rows () {
+			return to-from;
+		}
+
+		List<List<String>> range ( int start, int end ) {
+			return new Range( base, from+start, from+end );
+		}
+
+		List<List<String>> reversed () {
+			return new Reversed( base, from, to );
+		}
+
+		List<List<String>> base () {
+			return base;
+		}
+
+		int index ( int i ) {
+			return from+i;
+		}
+	}
+
+	// rows [from,to) of base, last first
+	private static class Reversed extends Rows {
+
+		private final List<List<String>> base;
+		private final int from;
+		private final int to;
+
+		Reversed ( List<List<String>> base, int from, int to ) {
+			this.base = base;
+			this.from = from;
+			this.to = Math.max( from, to );
+		}
+
+		List<String> row ( int i ) {
+			return baseRow( base, to-1-i );
+		}
+
+		int rows () {
+			return to-from;
+		}
+
+		List<List<String>> range ( int start, int end ) {
+			return new Reversed( base, to-end, to-start );
+		}
+
+		List<List<String>> reversed () {
+			return new Range( base, from, to );
+		}
+
+		List<List<String>> base () {
+			return base;
+		}
+
+		int index ( int i ) {
+			return to-1-i;
+		}
+	}
+
+	// the rows of base with these ids, in id order
+	private static class Selection extends Rows {
+
+		private final List<List<String>> base;
+		private final int[] ids;
+		private final int from;
+		private final int to;
+
+		Selection ( List<List<String>> base, int[] ids, int from, int to ) {
+			this.base = base;
+			this.ids = ids;
+			this.from = from;
+			this.to = Math.max( from, to );
+		}
+
+		List<String> row ( int i ) {
+			return baseRow( base, ids[from+i] );
+		}
+
+		int rows () {
+			return to-from;
+		}
+
+		List<List<String>> range ( int start, int end ) {
+			return new Selection( base, ids, from+start, from+end );
+		}
+
+		List<List<String>> reversed () {
+			int[] reversed = new int[ to-from ];
+			for (int i=0; i<reversed.length; i++) reversed[i] = ids[to-1-i];
+			return new Selection( base, reversed, 0, reversed.length );
+		}
+
+		List<List<String>> base () {
+			return base;
+		}
+
+		int index ( int i ) {
+			return ids[from+i];
+		}
+	}
+
+
+	// views, composed with the view they're taken from while it is unwritten
+
+	private static Rows unwritten ( List<List<String>> rows ) {
+		return ( rows instanceof Rows && ! ((Rows)rows).copied() ? (Rows)rows : null );
+	}
+
+	static List<List<String>> range ( List<List<String>> rows, int from, int to ) {
+		Rows view = unwritten( rows );
+		if (view != null) return view.range( from, to );
+		return new Range( rows, from, to );
+	}
+
+	static List<List<String>> reversed ( List<List<String>> rows ) {
+		Rows view = unwritten( rows );
+		if (view != null) return view.reversed();
+		return new Reversed( rows, 0, rows.size() );
+	}
+
+	static List<List<String>> selection ( List<List<String>> rows, IntList ids ) {
+		int[] selected = ids.toArray();
+		Rows view = unwritten( rows );
+		if (view != null && view.base() != null) {
+			for (int i=0; i<selected.length; i++) selected[i] = view.index( selected[i] );
+			return new Selection( view.base(), selected, 0, selected.length );
+		}
+		return new Selection( rows, selected, 0, selected.length );
+	}
+
+	// before rows are written in place
+	static void own ( List<List<String>> rows ) {
+		if (rows instanceof Rows) ((Rows)rows).copy();
+	}
+
+
+	// testing
+
+	public static void main ( String[] args ) {
+		int count = ( args.length > 0 ? Integer.parseInt( args[0] ) : 1000000 );
+		Table big = new SimpleTable();
+		for (int i=0; i<count; i++) big.append( new String[]{ "row"+i, String.valueOf( i%7 ), "x" } );
+
+		Table tail = big.reverse().last(3);
+		System.out.println( "reverse().last(3):\n"+tail );
+		tail.append( new String[]{ "appended", "to", "the view" } );
+		Map<String,String> replacements = new HashMap<>();
+		replacements.put( "row2", "replaced" );
+		Table projected = big.slice( 0, 4, 0, 2 );
+		projected.replace( replacements );
+		big.slice( 0, 4 ).replace( replacements );
+		System.out.println( "view after append:\n"+tail+"slice(0,4,0,2) after replace:\n"+projected+"parent rows: "+big.rowCount()+", "+big.slice( 0, 4 ).data() );
+		System.out.println( "set(1).reverse().slice(2,5):\n"+big.set(1).reverse().slice( 2, 5 ) );
+		Table parent = (new SimpleTable()).append( new String[]{ "row2", "a" } );
+		Table column = parent.slice( 0, 1, 0, 1 );
+		parent.replace( replacements );
+		System.out.println( "slice(0,1,0,1) after the parent's replace: "+column.data() );
+
+		Stats stats = new Stats( count+" rows" );
+		int rows = 0;
+		for (int i=0; i<100; i++) rows += big.reverse().last(100).rowCount();
+		stats.display( "100x reverse().last(100), views: "+rows+" rows" );
+		rows = 0;
+		for (int i=0; i<100; i++) {
+			// what reverse() did before: copy every row reference
+			List<List<String>> reversed = new ArrayList<>( big.data() );
+			Collections.reverse( reversed );
+			rows += (new SimpleTable()).data( reversed ).last(100).rowCount();
+		}
+		stats.display( "100x reverse().last(100), copies: "+rows+" rows" );
+	}
+
+}